@@ -0,0 +1,252 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.Vector;
+import java.util.zip.DataFormatException;
+
+/**
+ * micro benchmarks for formula parsing, arithmetic and rendering. the corpora are generated from a seed, so runs are
+ * reproducible:
+ * <ul>
+ * <li>realistic: molecules built from common elements, with hydrates, charges and polymer brackets</li>
+ * <li>adversarial: random strings from the formula grammar generators in {@link Formula}, long and deeply nested</li>
+ * </ul>
+ * every benchmark is run for a number of warmup and measurement rounds. reported are the throughput and, where the jvm
+ * supports it, the number of bytes allocated per operation.
+ *
+ * usage: FormulaBenchmark [seed] [corpus size] [rounds] [filter]
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaBenchmark {
+
+	private static final String[] ELEMENTS = { "C", "H", "O", "N", "P", "S", "Cl", "Na", "K", "Mg", "Ca", "Fe", "Zn", "Co", "Cu", "Mn", "Se", "Br", "I", "F", "R" };
+	private static final int[] WEIGHTS = { 30, 30, 20, 10, 5, 4, 3, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 3 };
+	private static final long MIN_ROUND_NANOS = 200000000L;
+
+	private static volatile int sink; // consumes results, so the jit can not eliminate the benchmarked code
+
+	/**
+	 * a single benchmark: op(i) is called for i=0,1,2,... and has to return some value derived from its result
+	 */
+	private static abstract class Benchmark {
+		private String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		abstract int op(int i) throws DataFormatException;
+	}
+
+	private String[] realistic;
+	private String[] adversarial;
+	private Formula[] formulas;
+	private CompactFormula[] compactFormulas;
+
+	/**
+	 * creates the corpora
+	 *
+	 * @param seed seed for the random generators
+	 * @param size number of formulas per corpus
+	 * @throws DataFormatException
+	 */
+	public FormulaBenchmark(long seed, int size) throws DataFormatException {
+		Random r = new Random(seed);
+		realistic = new String[size];
+		for (int i = 0; i < size; i++)
+			realistic[i] = realisticFormula(r);
+		adversarial = new String[size];
+		for (int i = 0; i < size;) {
+			String formula = Formula.generateFormula(r, 200);
+			try {
+				new Formula(formula, false);
+				adversarial[i++] = formula;
+			} catch (FormulaFormatException e) {
+				// the generators may produce strings the parser rejects, skip them
+			}
+		}
+		formulas = new Formula[size];
+		compactFormulas = new CompactFormula[size];
+		for (int i = 0; i < size; i++) {
+			formulas[i] = new Formula(realistic[i]);
+			compactFormulas[i] = formulas[i].compact();
+		}
+	}
+
+	private static String realisticFormula(Random r) {
+		StringBuffer sb = new StringBuffer();
+		int kind = r.nextInt(10);
+		if (kind == 0) sb.append('(');
+		int elements = 2 + r.nextInt(5);
+		for (int e = 0; e < elements; e++) {
+			sb.append(element(r));
+			int count = (e < 2) ? 1 + r.nextInt(40) : 1 + r.nextInt(6);
+			if (count > 1) sb.append(count);
+		}
+		if (kind == 0) {
+			sb.append(')');
+			sb.append(r.nextBoolean() ? "n" : "" + (2 + r.nextInt(20)));
+		}
+		if (kind == 1) sb.append("^" + (1 + r.nextInt(3)) + (r.nextBoolean() ? "+" : "-"));
+		if (kind == 2) sb.append("." + (1 + r.nextInt(6)) + "H2O");
+		return sb.toString();
+	}
+
+	private static String element(Random r) {
+		int total = 0;
+		for (int w : WEIGHTS)
+			total += w;
+		int x = r.nextInt(total);
+		for (int i = 0; i < WEIGHTS.length; i++) {
+			x -= WEIGHTS[i];
+			if (x < 0) return ELEMENTS[i];
+		}
+		return ELEMENTS[0];
+	}
+
+	private Vector<Benchmark> benchmarks() {
+		final int n = realistic.length;
+		Vector<Benchmark> result = new Vector<Benchmark>();
+		result.add(new Benchmark("parse realistic") {
+			int op(int i) throws DataFormatException {
+				return new Formula(realistic[i % n]).atomSet().size();
+			}
+		});
+		result.add(new Benchmark("parse adversarial") {
+			int op(int i) throws DataFormatException {
+				return new Formula(adversarial[i % n]).atomSet().size();
+			}
+		});
+		result.add(new Benchmark("parse compact realistic") {
+			int op(int i) throws DataFormatException {
+				return CompactFormula.parse(realistic[i % n]).size();
+			}
+		});
+		result.add(new Benchmark("valueOf realistic") {
+			int op(int i) throws DataFormatException {
+				return Formula.valueOf(realistic[i % n]).atomSet().size();
+			}
+		});
+		result.add(new Benchmark("add") {
+			int op(int i) throws DataFormatException {
+				Formula f = formulas[i % n].clone();
+				f.add(formulas[(i + 1) % n]);
+				return f.atomSet().size();
+			}
+		});
+		result.add(new Benchmark("multiply") {
+			int op(int i) throws DataFormatException {
+				return formulas[i % n].multiply(3).atomSet().size();
+			}
+		});
+		result.add(new Benchmark("stoichiometricDifference") {
+			int op(int i) throws DataFormatException {
+				return formulas[i % n].stoichiometricDifference(formulas[(i + 1) % n]).atomSet().size();
+			}
+		});
+		result.add(new Benchmark("compact add") {
+			int op(int i) {
+				return compactFormulas[i % n].add(compactFormulas[(i + 1) % n]).size();
+			}
+		});
+		result.add(new Benchmark("compact multiply") {
+			int op(int i) {
+				return compactFormulas[i % n].multiply(3).size();
+			}
+		});
+		result.add(new Benchmark("compact stoichiometricDifference") {
+			int op(int i) {
+				return compactFormulas[i % n].stoichiometricDifference(compactFormulas[(i + 1) % n]).size();
+			}
+		});
+		result.add(new Benchmark("html") {
+			int op(int i) {
+				return formulas[i % n].html().length();
+			}
+		});
+		result.add(new Benchmark("latex") {
+			int op(int i) {
+				return formulas[i % n].latex().length();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * runs all benchmarks whose name contains the filter
+	 *
+	 * @param rounds the number of measurement rounds, the same number of warmup rounds precedes them
+	 * @param filter only benchmarks containing this string are run, null runs all
+	 * @throws DataFormatException
+	 */
+	public void run(int rounds, String filter) throws DataFormatException {
+		System.out.println(String.format("%-34s %14s %12s %12s", "benchmark", "ops/s", "+-", "bytes/op"));
+		for (Benchmark benchmark : benchmarks()) {
+			if (filter != null && !benchmark.name.contains(filter)) continue;
+			for (int round = 0; round < rounds; round++)
+				measure(benchmark); // warmup
+			double[] throughput = new double[rounds];
+			double bytes = 0;
+			for (int round = 0; round < rounds; round++) {
+				double[] m = measure(benchmark);
+				throughput[round] = m[0];
+				bytes += m[1];
+			}
+			double mean = 0;
+			for (double t : throughput)
+				mean += t / rounds;
+			double variance = 0;
+			for (double t : throughput)
+				variance += (t - mean) * (t - mean) / Math.max(1, rounds - 1);
+			String allocation = (bytes < 0) ? "n/a" : String.format("%.1f", bytes / rounds);
+			System.out.println(String.format("%-34s %14.0f %12.0f %12s", benchmark.name, mean, Math.sqrt(variance), allocation));
+		}
+	}
+
+	/**
+	 * runs the benchmark for at least MIN_ROUND_NANOS
+	 *
+	 * @return operations per second and allocated bytes per operation (negative, if not supported by the jvm)
+	 */
+	private double[] measure(Benchmark benchmark) throws DataFormatException {
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		int ops = 0;
+		int result = 0;
+		do {
+			for (int i = 0; i < 1000; i++)
+				result += benchmark.op(ops++);
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MIN_ROUND_NANOS);
+		long endBytes = allocatedBytes();
+		sink += result;
+		double bytesPerOp = (startBytes < 0) ? -1 : (double) (endBytes - startBytes) / ops;
+		return new double[] { ops * 1e9 / elapsed, bytesPerOp };
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far, -1 if the jvm can not tell
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws DataFormatException {
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : 4711;
+		int size = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+		String filter = (args.length > 3) ? args[3] : null;
+		System.out.println("seed " + seed + ", " + size + " formulas per corpus, " + rounds + " rounds");
+		new FormulaBenchmark(seed, size).run(rounds, filter);
+		if (sink == 42) System.out.println(); // never true in practice, keeps sink alive
+	}
+}
@@ -0,0 +1,205 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * mass balance audit of a whole reaction set. the formulas of all substances are converted once into a sparse
+ * substance x element matrix E, which is multiplied with the sparse stoichiometric matrix S of the reactions (substrates
+ * counted positive, products negative). the rows of S*E are the element residuals of the reactions: a reaction is balanced,
+ * if its row is zero. reactions involving substances without formula are not audited, but listed separately.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class BalanceAudit {
+
+	private static final double TOLERANCE = 1e-9;
+
+	private final IdSet balanced = new IdSet();
+	private final IdSet unknown = new IdSet(); // reactions with substances lacking a formula
+	private final IdSet unknownSubstances = new IdSet();
+	private final int[] unbalanced; // sorted reaction ids
+	private final int[] residualStart; // residuals of unbalanced[i] are at residualStart[i]..residualStart[i+1]-1
+	private final int[] residualElements; // element ids of the ElementTable
+	private final double[] residualCounts; // substrates - products
+
+	/**
+	 * audits the given reactions
+	 *
+	 * @param reactions the reactions to be checked
+	 */
+	public BalanceAudit(ReactionSet reactions) {
+		Reaction[] rs = new Reaction[reactions.size()];
+		int reactionCount = 0, size = 0;
+		for (Integer rid : reactions) {
+			Reaction reaction = Reaction.get(rid);
+			if (reaction == null) continue;
+			rs[reactionCount++] = reaction;
+			size += reaction.substrateCount() + reaction.productCount();
+		}
+
+		// substance index
+		int[] substances = new int[size];
+		size = 0;
+		for (int r = 0; r < reactionCount; r++) {
+			for (int i = 0; i < rs[r].substrateCount(); i++)
+				substances[size++] = rs[r].substrateId(i);
+			for (int i = 0; i < rs[r].productCount(); i++)
+				substances[size++] = rs[r].productId(i);
+		}
+		Arrays.sort(substances, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++)
+			if (distinct == 0 || substances[i] != substances[distinct - 1]) substances[distinct++] = substances[i];
+		substances = Arrays.copyOf(substances, distinct);
+
+		// substance x element matrix in CSR form, rows of substances without formula stay empty
+		int[] rowStart = new int[distinct + 1];
+		boolean[] known = new boolean[distinct];
+		CompactFormula[] formulas = new CompactFormula[distinct];
+		for (int s = 0; s < distinct; s++) {
+			Substance substance = Substance.get(substances[s]);
+			Formula formula = (substance == null) ? null : substance.formula();
+			if (formula == null) {
+				unknownSubstances.add(substances[s]);
+			} else {
+				known[s] = true;
+				formulas[s] = formula.compact();
+				rowStart[s + 1] = formulas[s].size();
+			}
+		}
+		for (int s = 0; s < distinct; s++)
+			rowStart[s + 1] += rowStart[s];
+		int[] elements = new int[rowStart[distinct]];
+		double[] counts = new double[elements.length];
+		for (int s = 0; s < distinct; s++) {
+			if (!known[s]) continue;
+			for (int i = 0; i < formulas[s].size(); i++) {
+				elements[rowStart[s] + i] = formulas[s].element(i);
+				counts[rowStart[s] + i] = formulas[s].countAt(i);
+			}
+		}
+		formulas = null;
+
+		// rows of S*E, using a dense accumulator over the elements
+		double[] accumulator = new double[ElementTable.size()];
+		boolean[] touched = new boolean[accumulator.length];
+		int[] touchedList = new int[accumulator.length];
+		int[] unbalancedIds = new int[reactionCount];
+		int[] start = new int[reactionCount + 1];
+		int[] resElements = new int[16];
+		double[] resCounts = new double[16];
+		int unbalancedCount = 0, residuals = 0;
+		for (int r = 0; r < reactionCount; r++) {
+			Reaction reaction = rs[r];
+			int touchedCount = 0;
+			boolean complete = true;
+			for (int side = 0; side < 2 && complete; side++) {
+				int n = (side == 0) ? reaction.substrateCount() : reaction.productCount();
+				for (int i = 0; i < n; i++) {
+					int s = Arrays.binarySearch(substances, (side == 0) ? reaction.substrateId(i) : reaction.productId(i));
+					if (!known[s]) {
+						complete = false;
+						break;
+					}
+					double factor = (side == 0) ? reaction.substrateStoichiometry(i) : -reaction.productStoichiometry(i);
+					for (int k = rowStart[s]; k < rowStart[s + 1]; k++) {
+						int e = elements[k];
+						if (!touched[e]) {
+							touched[e] = true;
+							touchedList[touchedCount++] = e;
+						}
+						accumulator[e] += factor * counts[k];
+					}
+				}
+			}
+			if (!complete) unknown.add(reaction.id());
+			Arrays.sort(touchedList, 0, touchedCount);
+			int before = residuals;
+			for (int t = 0; t < touchedCount; t++) {
+				int e = touchedList[t];
+				if (complete && Math.abs(accumulator[e]) > TOLERANCE) {
+					if (residuals == resElements.length) {
+						resElements = Arrays.copyOf(resElements, 2 * residuals);
+						resCounts = Arrays.copyOf(resCounts, 2 * residuals);
+					}
+					resElements[residuals] = e;
+					resCounts[residuals++] = accumulator[e];
+				}
+				accumulator[e] = 0;
+				touched[e] = false;
+			}
+			if (!complete) continue;
+			if (residuals == before) {
+				balanced.add(reaction.id());
+			} else {
+				unbalancedIds[unbalancedCount] = reaction.id();
+				start[unbalancedCount++] = before;
+			}
+		}
+		start[unbalancedCount] = residuals;
+
+		unbalanced = Arrays.copyOf(unbalancedIds, unbalancedCount); // sorted, as the reaction set is iterated in ascending order
+		residualStart = Arrays.copyOf(start, unbalancedCount + 1);
+		residualElements = Arrays.copyOf(resElements, residuals);
+		residualCounts = Arrays.copyOf(resCounts, residuals);
+	}
+
+	/**
+	 * @return the reactions, whose substrates and products contain the same atoms
+	 */
+	public IdSet balanced() {
+		return balanced.view();
+	}
+
+	/**
+	 * @return the reactions, whose substrates and products differ in their atoms
+	 */
+	public IdSet unbalanced() {
+		return new IdSet(unbalanced).view();
+	}
+
+	/**
+	 * @return the reactions, which could not be checked, because the formula of at least one of their substances is unknown
+	 */
+	public IdSet unknown() {
+		return unknown.view();
+	}
+
+	/**
+	 * @return the substances without formula
+	 */
+	public IdSet unknownSubstances() {
+		return unknownSubstances.view();
+	}
+
+	/**
+	 * @param reactionId the id of a reaction
+	 * @return the element residual of the reaction (atoms of the substrates minus atoms of the products), mapped from element
+	 *         symbols to counts. empty, if the reaction is balanced or has not been checked
+	 */
+	public TreeMap<String, Double> residual(int reactionId) {
+		TreeMap<String, Double> result = new TreeMap<String, Double>();
+		int i = Arrays.binarySearch(unbalanced, reactionId);
+		if (i < 0) return result;
+		for (int k = residualStart[i]; k < residualStart[i + 1]; k++)
+			result.put(ElementTable.symbol(residualElements[k]), residualCounts[k]);
+		return result;
+	}
+
+	/**
+	 * @param reactionId the id of a reaction
+	 * @return the element residual of the reaction as compact formula (atoms of the substrates minus atoms of the products)
+	 */
+	public CompactFormula residualFormula(int reactionId) {
+		int i = Arrays.binarySearch(unbalanced, reactionId);
+		if (i < 0) return CompactFormula.EMPTY;
+		int from = residualStart[i], to = residualStart[i + 1];
+		return CompactFormula.create(Arrays.copyOfRange(residualElements, from, to), Arrays.copyOfRange(residualCounts, from, to), to - from);
+	}
+
+	public String toString() {
+		return balanced.size() + " balanced, " + unbalanced.length + " unbalanced, " + unknown.size() + " unchecked reactions";
+	}
+}
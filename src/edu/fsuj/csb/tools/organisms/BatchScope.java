@@ -0,0 +1,209 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * calculates the scopes of many seed sets within the same network. 64 seed sets are expanded together: for every substance
+ * a long holds one bit per seed set (lane), so a reaction direction is checked for all 64 seed sets with a few AND
+ * operations. the blocks of 64 seed sets are distributed over a thread pool, while the compiled network is shared by all
+ * threads.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class BatchScope {
+
+	private static final int LANES = 64;
+
+	private final ReactionNetwork network;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param network the network, in which the scopes shall be calculated
+	 */
+	public BatchScope(ReactionNetwork network) {
+		this.network = network;
+	}
+
+	/**
+	 * @param compartment the compartment, in which the scopes shall be calculated
+	 */
+	public BatchScope(Compartment compartment) {
+		this(compartment.reactions().network(compartment));
+	}
+
+	/**
+	 * @param threads the number of threads used, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * calculates the scopes of the given seed sets
+	 *
+	 * @param seedSets the seed sets, given as substance indices of the network
+	 * @return for every seed set the indices of all substances in its scope (including the seeds), in ascending order
+	 * @throws InterruptedException
+	 */
+	public int[][] calculate(final int[][] seedSets) throws InterruptedException {
+		final int[][] result = new int[seedSets.length][];
+		final int blocks = (seedSets.length + LANES - 1) / LANES;
+		int tasks = Math.min(threads, blocks);
+		if (tasks == 0) return result;
+		ExecutorService pool = Executors.newFixedThreadPool(tasks);
+		try {
+			LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
+			for (int t = 0; t < tasks; t++) {
+				final int first = t;
+				final int step = tasks;
+				pending.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						Block block = new Block();
+						for (int b = first; b < blocks; b += step)
+							block.expand(seedSets, b * LANES, Math.min(LANES, seedSets.length - b * LANES), result);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : pending) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * calculates the scopes of the given seed sets
+	 *
+	 * @param seedSets the seed sets, given as substance ids
+	 * @return for every seed set the set of substances which may be formed, including the seeds (like
+	 *         {@link ReactionSet#calculateProductsOf(Collection, Compartment)})
+	 * @throws InterruptedException
+	 */
+	public Vector<IdSet> calculateProductsOf(List<? extends Collection<Integer>> seedSets) throws InterruptedException {
+		int[][] seedIndices = new int[seedSets.size()][];
+		int i = 0;
+		for (Collection<Integer> seeds : seedSets)
+			seedIndices[i++] = network.indicesOf(seeds);
+		int[][] scopes = calculate(seedIndices);
+		Vector<IdSet> result = new Vector<IdSet>(scopes.length);
+		i = 0;
+		for (Collection<Integer> seeds : seedSets) {
+			IdSet scope = new IdSet(seeds);
+			for (int s : scopes[i++])
+				scope.add(network.substance(s));
+			result.add(scope);
+		}
+		return result;
+	}
+
+	/**
+	 * working space for the expansion of one block of seed sets. reused for all blocks handled by one thread
+	 */
+	private class Block {
+		private long[] available = new long[network.substanceCount()]; // bit j of available[s] is set, if substance s is in scope j
+		private long[] fired = new long[network.directionCount()]; // bit j of fired[d] is set, if direction d has fired in scope j
+		private boolean[] queued = new boolean[network.substanceCount()];
+		private int[] queue = new int[network.substanceCount()]; // ring buffer; every substance is queued at most once at a time
+		private int head, size;
+
+		/**
+		 * expands the seed sets seedSets[offset..offset+count-1] and stores their scopes in result
+		 */
+		void expand(int[][] seedSets, int offset, int count, int[][] result) {
+			Arrays.fill(available, 0L);
+			Arrays.fill(fired, 0L);
+			head = 0;
+			size = 0;
+			long lanes = (count == LANES) ? -1L : (1L << count) - 1;
+			for (int j = 0; j < count; j++) {
+				for (int s : seedSets[offset + j]) {
+					available[s] |= 1L << j;
+					enqueue(s);
+				}
+			}
+			int[] inputStart = network.inputStart, inputs = network.inputs;
+			for (int d = 0; d < fired.length; d++)
+				if (inputStart[d] == inputStart[d + 1]) fire(d, lanes);
+			int[] consumerStart = network.consumerStart, consumers = network.consumers;
+			while (size > 0) {
+				int s = queue[head];
+				head = (head + 1) % queue.length;
+				size--;
+				queued[s] = false;
+				for (int i = consumerStart[s]; i < consumerStart[s + 1]; i++) {
+					int d = consumers[i];
+					long mask = lanes & ~fired[d];
+					for (int k = inputStart[d]; mask != 0 && k < inputStart[d + 1]; k++)
+						mask &= available[inputs[k]];
+					if (mask != 0) fire(d, mask);
+				}
+			}
+			collect(offset, count, result);
+		}
+
+		private void enqueue(int s) {
+			if (queued[s]) return;
+			queued[s] = true;
+			queue[(head + size++) % queue.length] = s;
+		}
+
+		/**
+		 * fires direction d in the scopes given by mask
+		 */
+		private void fire(int d, long mask) {
+			fired[d] |= mask;
+			int[] outputStart = network.outputStart, outputs = network.outputs;
+			for (int i = outputStart[d]; i < outputStart[d + 1]; i++) {
+				int o = outputs[i];
+				long added = mask & ~available[o];
+				if (added != 0) {
+					available[o] |= added;
+					enqueue(o);
+				}
+			}
+		}
+
+		/**
+		 * converts the bit lanes into sorted substance index arrays
+		 */
+		private void collect(int offset, int count, int[][] result) {
+			int[] sizes = new int[count];
+			for (long bits : available) {
+				while (bits != 0) {
+					sizes[Long.numberOfTrailingZeros(bits)]++;
+					bits &= bits - 1;
+				}
+			}
+			for (int j = 0; j < count; j++) {
+				result[offset + j] = new int[sizes[j]];
+				sizes[j] = 0;
+			}
+			for (int s = 0; s < available.length; s++) {
+				long bits = available[s];
+				while (bits != 0) {
+					int j = Long.numberOfTrailingZeros(bits);
+					result[offset + j][sizes[j]++] = s;
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+}
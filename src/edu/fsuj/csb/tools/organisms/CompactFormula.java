@@ -0,0 +1,327 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+
+import edu.fsuj.csb.tools.xml.ObjectComparator;
+
+/**
+ * immutable, memory efficient alternative to {@link Formula}. the atom counts are stored as parallel primitive arrays,
+ * which map element ids of the {@link ElementTable} to stoichiometries. elements with zero count are not stored.
+ *
+ * @author Stephan Richter
+ *
+ */
+public final class CompactFormula {
+
+	private static final int[] NO_ELEMENTS = new int[0];
+	private static final double[] NO_COUNTS = new double[0];
+	public static final CompactFormula EMPTY = new CompactFormula(NO_ELEMENTS, NO_COUNTS);
+
+	private final int[] elements; // element ids, sorted ascending
+	private final double[] counts; // counts[i] belongs to elements[i]
+	private int hash;
+
+	/**
+	 * creates a new formula from arrays, which already are sorted by element id and contain no zero counts. the arrays are
+	 * not copied.
+	 */
+	private CompactFormula(int[] elements, double[] counts) {
+		this.elements = elements;
+		this.counts = counts;
+	}
+
+	/**
+	 * parses the given formula string
+	 *
+	 * @param formula the sum formula, e.g. "C6H12O6"
+	 * @return the parsed formula
+	 * @throws DataFormatException if the string is no valid formula
+	 */
+	public static CompactFormula parse(String formula) throws DataFormatException {
+		FormulaParser parser = FormulaParser.get();
+		parser.parse(formula);
+		int size = parser.size();
+		int[] ids = new int[size];
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = ElementTable.id(parser.symbol(i));
+			values[i] = parser.count(i);
+		}
+		return create(ids, values, size);
+	}
+
+	/**
+	 * converts a formula into its compact representation
+	 *
+	 * @param formula the formula to be converted
+	 * @return the compact equivalent of the given formula
+	 */
+	public static CompactFormula of(Formula formula) {
+		TreeMap<String, Double> atoms = formula.atomMap();
+		int[] ids = new int[atoms.size()];
+		double[] values = new double[atoms.size()];
+		int size = 0;
+		for (Entry<String, Double> entry : atoms.entrySet()) {
+			ids[size] = ElementTable.id(entry.getKey());
+			values[size++] = entry.getValue();
+		}
+		return create(ids, values, size);
+	}
+
+	/**
+	 * sorts the given (unique) element ids with their counts and drops zero counts. the arrays are reused
+	 */
+	static CompactFormula create(int[] ids, double[] values, int size) {
+		for (int i = 1; i < size; i++) { // insertion sort, formulas have only few elements
+			int id = ids[i];
+			double value = values[i];
+			int j = i - 1;
+			while (j >= 0 && ids[j] > id) {
+				ids[j + 1] = ids[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			ids[j + 1] = id;
+			values[j + 1] = value;
+		}
+		return trim(ids, values, size);
+	}
+
+	/**
+	 * drops zero counts from sorted arrays and creates the formula object
+	 */
+	private static CompactFormula trim(int[] ids, double[] values, int size) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (values[i] == 0.0) continue;
+			ids[count] = ids[i];
+			values[count++] = values[i];
+		}
+		if (count == 0) return EMPTY;
+		if (count < ids.length) {
+			ids = Arrays.copyOf(ids, count);
+			values = Arrays.copyOf(values, count);
+		}
+		return new CompactFormula(ids, values);
+	}
+
+	/**
+	 * @return a {@link Formula} with the same atom counts
+	 */
+	public Formula toFormula() {
+		TreeMap<String, Double> atoms = new TreeMap<String, Double>(ObjectComparator.get());
+		for (int i = 0; i < elements.length; i++)
+			atoms.put(ElementTable.symbol(elements[i]), counts[i]);
+		return new Formula(atoms);
+	}
+
+	/**
+	 * @return the number of different elements in this formula
+	 */
+	public int size() {
+		return elements.length;
+	}
+
+	/**
+	 * @param index position within this formula, has to be smaller than size()
+	 * @return the element id at the given position
+	 */
+	public int element(int index) {
+		return elements[index];
+	}
+
+	/**
+	 * @param index position within this formula, has to be smaller than size()
+	 * @return the count of the element at the given position
+	 */
+	public double countAt(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * @param elementId the id of an element
+	 * @return the stoichiometry of the given element within this formula, 0 if it does not occur
+	 */
+	public double count(int elementId) {
+		int index = Arrays.binarySearch(elements, elementId);
+		return (index < 0) ? 0.0 : counts[index];
+	}
+
+	/**
+	 * @param symbol the symbol of an element
+	 * @return the stoichiometry of the given element within this formula, 0 if it does not occur
+	 */
+	public double count(String symbol) {
+		int id = ElementTable.lookup(symbol);
+		return (id < 0) ? 0.0 : count(id);
+	}
+
+	/**
+	 * @return the monoisotopic mass of this formula, NaN if it contains elements with unknown mass
+	 */
+	public double monoisotopicMass() {
+		double result = 0;
+		for (int i = 0; i < elements.length; i++)
+			result += counts[i] * ElementMasses.monoisotopic(elements[i]);
+		return result;
+	}
+
+	/**
+	 * @return the average mass of this formula, NaN if it contains elements with unknown mass
+	 */
+	public double averageMass() {
+		double result = 0;
+		for (int i = 0; i < elements.length; i++)
+			result += counts[i] * ElementMasses.average(elements[i]);
+		return result;
+	}
+
+	public boolean isEmpty() {
+		return elements.length == 0;
+	}
+
+	/**
+	 * @return the set of element symbols contained in this formula
+	 */
+	public TreeSet<String> atomSet() {
+		TreeSet<String> result = new TreeSet<String>(ObjectComparator.get());
+		for (int id : elements)
+			result.add(ElementTable.symbol(id));
+		return result;
+	}
+
+	/**
+	 * create the sum of this formula and the given one
+	 *
+	 * @param f the formula to be added
+	 * @return a new formula containing the sum
+	 */
+	public CompactFormula add(CompactFormula f) {
+		return combine(f, 1.0);
+	}
+
+	/**
+	 * create the difference of this formula and the given one
+	 *
+	 * @param f the formula to be subtracted
+	 * @return a new formula containing the difference
+	 * @throws NoSuchElementException if this formula does not contain enough atoms of an element of f
+	 */
+	public CompactFormula subtract(CompactFormula f) {
+		int i = 0;
+		for (int j = 0; j < f.elements.length; j++) {
+			while (i < elements.length && elements[i] < f.elements[j])
+				i++;
+			String atom = ElementTable.symbol(f.elements[j]);
+			if (i == elements.length || elements[i] != f.elements[j]) throw new NoSuchElementException("Tried to remove " + atom + " from " + this + ", but " + this + " contains no " + atom + "!");
+			if (counts[i] - f.counts[j] < 0) throw new NoSuchElementException("Tried to remove " + f + " from " + this + ", but it contains not enough " + atom + "!");
+		}
+		return combine(f, -1.0);
+	}
+
+	/**
+	 * merges both sorted arrays, adding sign*f to this formula
+	 */
+	private CompactFormula combine(CompactFormula f, double sign) {
+		int n = elements.length, m = f.elements.length;
+		int[] ids = new int[n + m];
+		double[] values = new double[n + m];
+		int i = 0, j = 0, size = 0;
+		while (i < n || j < m) {
+			if (j == m || (i < n && elements[i] < f.elements[j])) {
+				ids[size] = elements[i];
+				values[size++] = counts[i++];
+			} else if (i == n || f.elements[j] < elements[i]) {
+				ids[size] = f.elements[j];
+				values[size++] = sign * f.counts[j++];
+			} else {
+				ids[size] = elements[i];
+				values[size++] = counts[i++] + sign * f.counts[j++];
+			}
+		}
+		return trim(ids, values, size);
+	}
+
+	/**
+	 * create a multiple of this formula
+	 *
+	 * @param factor the factor to multiply with
+	 * @return the multiple of the current formula
+	 */
+	public CompactFormula multiply(double factor) {
+		if (factor == 1.0) return this;
+		int[] ids = elements.clone();
+		double[] values = new double[counts.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = factor * counts[i];
+		return trim(ids, values, ids.length);
+	}
+
+	/**
+	 * calculates the absolute difference of the element counts of this formula and the given one
+	 *
+	 * @param f the formula to compare with
+	 * @return a formula containing the absolute count differences of all elements
+	 */
+	public CompactFormula stoichiometricDifference(CompactFormula f) {
+		int n = elements.length, m = f.elements.length;
+		int[] ids = new int[n + m];
+		double[] values = new double[n + m];
+		int i = 0, j = 0, size = 0;
+		while (i < n || j < m) {
+			if (j == m || (i < n && elements[i] < f.elements[j])) {
+				ids[size] = elements[i];
+				values[size++] = counts[i++];
+			} else if (i == n || f.elements[j] < elements[i]) {
+				ids[size] = f.elements[j];
+				values[size++] = Math.abs(f.counts[j++]);
+			} else {
+				ids[size] = elements[i];
+				values[size++] = Math.abs(counts[i++] - f.counts[j++]);
+			}
+		}
+		return trim(ids, values, size);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (!(o instanceof CompactFormula)) return false;
+		CompactFormula f = (CompactFormula) o;
+		return Arrays.equals(elements, f.elements) && Arrays.equals(counts, f.counts);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = 31 * Arrays.hashCode(elements) + Arrays.hashCode(counts);
+			hash = h;
+		}
+		return h;
+	}
+
+	/**
+	 * @return the formula string with elements in alphabetical order, e.g. C6H12O6
+	 */
+	public String toString() {
+		TreeMap<String, Double> atoms = new TreeMap<String, Double>(ObjectComparator.get());
+		for (int i = 0; i < elements.length; i++)
+			atoms.put(ElementTable.symbol(elements[i]), counts[i]);
+		StringBuffer sb = new StringBuffer();
+		for (Entry<String, Double> entry : atoms.entrySet()) {
+			sb.append(entry.getKey());
+			double count = entry.getValue();
+			if (count == 1.0) continue;
+			if (count == Math.rint(count) && Math.abs(count) < Long.MAX_VALUE) {
+				sb.append((long) count);
+			} else sb.append(count);
+		}
+		return sb.toString();
+	}
+}
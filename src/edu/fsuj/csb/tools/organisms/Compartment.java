@@ -4,11 +4,12 @@ import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import edu.fsuj.csb.tools.urn.URN;
-import edu.fsuj.csb.tools.xml.Tools;
 import edu.fsuj.csb.tools.xml.XmlObject;
 import edu.fsuj.csb.tools.xml.XmlToken;
 
@@ -23,9 +24,14 @@ public class Compartment extends Component implements Serializable,XmlObject {
 
 	private TreeSet<Integer> contained;
 	private ReactionSet reactions;
-	private TreeSet<Integer> utilizedSubstances;
+	private IdSet utilizedSubstances;
 	private TreeSet<Integer> enzymes;
 	private static TreeSet<Integer> allCompartments=new TreeSet<Integer>();
+	/* directions of the reactions, indexed by their dense index i: bit 2i is set, if the reaction may fire forward in this
+	 * compartment, bit 2i+1, if it may fire backward. both bits of a reaction lie in the same word, so they are always read
+	 * together. the dense indices are only valid within one vm, so the bits are not serialized, but rebuilt on demand. the
+	 * array is updated in place and only replaced, when it has to grow */
+	private transient volatile AtomicLongArray directions;
 
 	/**
 	 * create a new compartment
@@ -72,14 +78,14 @@ public class Compartment extends Component implements Serializable,XmlObject {
 	}
 	
 	/**
-	 * @return the set of substances which may participate in reactions of this compartment
+	 * @return the set of substances which may participate in reactions of this compartment (read-only)
 	 */
-	public TreeSet<Integer> utilizedSubstances(){
-		Tools.startMethod("Compartment.utilizedSubstances()");
+	public IdSet utilizedSubstances(){
+		int trace=Trace.start(Trace.MODEL, "Compartment.utilizedSubstances");
 		if (utilizedSubstances==null){
-			utilizedSubstances=reactions().utilizedSubstances();
+			utilizedSubstances=reactions().utilizedSubstances().view();
 		}
-		Tools.endMethod(utilizedSubstances);
+		Trace.end(trace, utilizedSubstances);
 		return utilizedSubstances;
 	}
 	
@@ -138,8 +144,75 @@ public class Compartment extends Component implements Serializable,XmlObject {
 		if (reactionList==null) return;
 		if (reactions==null) reactions=new ReactionSet();
 		reactions.addAll(reactionList);
+		Vector<Reaction> added=new Vector<Reaction>(reactionList.size());
+		for (Integer rid:reactionList) {
+			Reaction reaction=Reaction.get(rid);
+			if (reaction!=null) added.add(reaction);
+		}
+		storeDirectionBits(added);
   }
 
+	/**
+	 * looks up the directions of a reaction in this compartment. directions not cached in the bitset yet are taken from the reaction
+	 * @param reaction the reaction of interest
+	 * @return Reaction.FORWARD_BIT and/or Reaction.BACKWARD_BIT, 0 if the reaction has no direction in this compartment
+	 */
+	int directionBits(Reaction reaction) {
+		int index=reaction.index();
+		int word=index>>>5;
+		AtomicLongArray dirs=directions;
+		int bits=0;
+		if (dirs!=null && word<dirs.length()) bits=(int)(dirs.get(word)>>>((index&31)<<1))&(Reaction.FORWARD_BIT|Reaction.BACKWARD_BIT);
+		if (bits==0) { // every known direction sets at least one bit, so the reaction is unknown here
+			bits=reaction.directionBits(id());
+			if (bits!=0) setDirectionBits(index, bits);
+		}
+		return bits;
+	}
+
+	/**
+	 * stores the directions of a reaction in the bitset of this compartment
+	 * @param index the dense index of the reaction
+	 * @param bits Reaction.FORWARD_BIT and/or Reaction.BACKWARD_BIT
+	 */
+	synchronized void setDirectionBits(int index, int bits) {
+		setBits(capacity(index), index, bits);
+	}
+
+	/**
+	 * stores the directions of several reactions in the bitset of this compartment
+	 * @param reactions the reactions, whose directions shall be cached
+	 */
+	private synchronized void storeDirectionBits(Collection<Reaction> reactions) {
+		if (reactions.isEmpty()) return;
+		int maxIndex=0;
+		for (Reaction reaction:reactions) maxIndex=Math.max(maxIndex, reaction.index());
+		AtomicLongArray dirs=capacity(maxIndex);
+		for (Reaction reaction:reactions) setBits(dirs, reaction.index(), reaction.directionBits(id()));
+	}
+
+	/**
+	 * makes sure, the bitset can hold the given index. has to be called while holding the lock
+	 * @param index the largest dense index to be stored
+	 * @return the bitset
+	 */
+	private AtomicLongArray capacity(int index) {
+		AtomicLongArray dirs=directions;
+		int length=(dirs==null)?0:dirs.length();
+		if ((index>>>5)<length) return dirs;
+		long[] words=new long[Math.max((index>>>5)+1, 2*length)];
+		for (int i=0; i<length; i++) words[i]=dirs.get(i);
+		dirs=new AtomicLongArray(words);
+		directions=dirs;
+		return dirs;
+	}
+
+	private static void setBits(AtomicLongArray dirs, int index, int bits) {
+		int word=index>>>5, shift=(index&31)<<1;
+		long value=dirs.get(word);
+		dirs.set(word, (value&~(3L<<shift)) | ((long)(bits&(Reaction.FORWARD_BIT|Reaction.BACKWARD_BIT))<<shift));
+	}
+
 	/**
 	 * calculates, which substences can be produced by this compartment, when supplied with a given set of substrates
 	 * @param substanceIds the set of substrates for the closure computation
@@ -150,6 +223,45 @@ public class Compartment extends Component implements Serializable,XmlObject {
 	  return reactions().calculateProductsOf(substanceIds, this);
   }
 	
+	/**
+	 * calculates the network expansion trajectory: the generation, in which each substance and reaction becomes reachable from the given substrates
+	 * @param substanceIds the set of substrates for the closure computation
+	 * @return the generations of the substances and reactions
+	 */
+	public Trajectory expansionTrajectory(Collection<Integer> substanceIds) {
+		return reactions().network(this).trajectory(substanceIds);
+	}
+	
+	/**
+	 * essentiality analysis: determines for every reaction of this compartment, which of the given targets can no longer be produced from the given substrates, if the reaction is knocked out
+	 * @param substanceIds the set of substrates for the closure computation
+	 * @param targetIds the substances of interest
+	 * @param threads the number of threads to use
+	 * @return mapping from the ids of the essential reactions to the targets lost by their knockout
+	 * @throws InterruptedException
+	 */
+	public TreeMap<Integer, TreeSet<Integer>> essentialReactions(Collection<Integer> substanceIds, Collection<Integer> targetIds, int threads) throws InterruptedException {
+		return reactions().network(this).essentialReactions(substanceIds, targetIds, threads);
+	}
+	
+	/**
+	 * builds the sparse stoichiometric matrix of the reactions of this compartment, using their directions in this compartment.
+	 * ids of reactions, which have not been loaded, are left out
+	 * @param split if set, reversible reactions are split into forward and backward columns
+	 * @return the matrix in CSR and CSC form together with the mappings of its rows and columns to substance and reaction ids
+	 */
+	public StoichiometricMatrix stoichiometricMatrix(boolean split) {
+		return reactions().stoichiometricMatrix(this, split);
+	}
+	
+	/**
+	 * sets up flux balance analysis for this compartment: the fluxes are bounded by the directions of the reactions in this compartment, all inflows and outflows are closed initially
+	 * @return the flux balance problem, which can be configured and solved repeatedly
+	 */
+	public FluxBalance fluxBalance() {
+		return new FluxBalance(this);
+	}
+	
 	@Override
 	public TreeSet<String> names() {
 		if (super.names()!=null && super.names().isEmpty()) addName("unnamed compartment");
@@ -158,31 +270,32 @@ public class Compartment extends Component implements Serializable,XmlObject {
 
 	@Override
   public void getCode(StringBuffer sb) {
-		Tools.startMethod("Compartment.getCode()");
+		int trace=Trace.start(Trace.EXPORT, "Compartment.getCode");
 		setValue("id", "c"+id());
 		setValue("name", mainName());
 		setValue("siz", 1);
 		super.getCode(sb);
-		Tools.endMethod(sb);		
+		Trace.end(trace, sb);
 	}
 
 	protected XmlToken reactionList() {
-		Tools.startMethod("Compartment.reactionList()");
+		int trace=Trace.start(Trace.EXPORT, "Compartment.reactionList");
 		XmlToken rList = new XmlToken("listOfReactions");
-		int number=reactions.get().size()/50;
+		IdSet reactionIds=reactions.get();
+		int number=reactionIds.size()/50;
 		int count=0;
 		System.err.print("\n[");
-		for (Integer reactionId : reactions.get()) {
+		for (Integer reactionId : reactionIds) {
 			if (++count%number==0) System.err.print("#");
 			rList.add(Reaction.get(reactionId));
 		}
 		System.err.println(']');
-		Tools.endMethod("{"+rList.toString().substring(0, 40)+"...}");
+		Trace.end(trace, rList, 40);
 		return rList;
 	}
 
 	protected XmlToken speciesList() {
-		Tools.startMethod("Compartment.speciesList()");
+		int trace=Trace.start(Trace.EXPORT, "Compartment.speciesList");
 		XmlToken sList=new XmlToken("listOfSpecies");			
 		
 		int number=utilizedSubstances().size()/50;
@@ -195,7 +308,7 @@ public class Compartment extends Component implements Serializable,XmlObject {
 			sList.add(substance);
 		}
 		System.err.println(']');
-		Tools.endMethod("{"+sList.toString().substring(0, 40)+"...}");
+		Trace.end(trace, sList, 40);
 		return sList;
 	}
 
@@ -207,7 +320,7 @@ public class Compartment extends Component implements Serializable,XmlObject {
   }
 
 	public XmlToken getModel() {
-		Tools.startMethod("Compartment.getModel()");
+		int trace=Trace.start(Trace.EXPORT, "Compartment.getModel");
 
 		XmlToken sbml = new XmlToken("sbml");
 		sbml.setValue("xmlns", "http://www.sbml.org/sbml/level2");
@@ -226,7 +339,7 @@ public class Compartment extends Component implements Serializable,XmlObject {
 		model.add(reactionList());
 		
 		sbml.add(model);
-		Tools.endMethod("{"+model.toString().substring(0, 40)+"...}");
+		Trace.end(trace, model, 40);
 		return sbml;
 	}
 }
\ No newline at end of file
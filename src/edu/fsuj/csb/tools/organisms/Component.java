@@ -4,6 +4,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeMap;
@@ -84,8 +85,8 @@ public abstract class Component extends XmlToken{
 	 * @throws DataFormatException 
 	 */
 	public Vector<URN> urns() throws DataFormatException {
-		Tools.startMethod("urns()");
-		Tools.endMethod(urns);
+		int trace=Trace.start(Trace.MODEL, "urns");
+		Trace.end(trace, urns);
 	  return urns;
   }
 
@@ -127,6 +128,13 @@ public abstract class Component extends XmlToken{
 		return createdComponents.get(id);
 	}
 	
+	/**
+	 * @return all components created so far, ordered by id
+	 */
+	public static Collection<Component> all(){
+		return Collections.unmodifiableCollection(createdComponents.values());
+	}
+	
 	/**
 	 * compose urls out of the components urns and return them
 	 * @return the set of registered urls
@@ -134,13 +142,13 @@ public abstract class Component extends XmlToken{
 	 * @throws MalformedURLException 
 	 */
 	public Vector<URL> urls() throws MalformedURLException, DataFormatException {
-		Tools.startMethod("urls()");
+		int trace=Trace.start(Trace.MODEL, "urls");
 	  Vector<URL> result=new Vector<URL>();
 		for (Iterator<URN> it = urns().iterator(); it.hasNext();){
 			Set<URL> urls = it.next().urls();
 			if (urls!=null)	result.addAll(urls);
 		}
-		Tools.endMethod(result);
+		Trace.end(trace, result);
 		return result;
   }
 	
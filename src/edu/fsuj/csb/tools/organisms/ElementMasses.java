@@ -0,0 +1,79 @@
+package edu.fsuj.csb.tools.organisms;
+
+/**
+ * table of element masses. provides the monoisotopic mass (mass of the most abundant isotope) and the average mass
+ * (standard atomic weight) of the elements in atomic mass units. the values are held in primitive arrays indexed by the ids
+ * of the {@link ElementTable}. symbols without known mass (like R for residues) yield NaN.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class ElementMasses {
+
+	private static final String[] SYMBOLS = { "H", "He", "Li", "Be", "B", "C", "N", "O", "F", "Ne", "Na", "Mg", "Al", "Si", "P", "S", "Cl", "Ar", "K", "Ca", "Sc", "Ti", "V", "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", "Ga", "Ge", "As", "Se", "Br", "Kr", "Rb", "Sr", "Y", "Zr", "Nb", "Mo", "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn", "Sb", "Te", "I", "Xe", "Cs", "Ba", "La", "Gd", "Ta", "W", "Re", "Os", "Ir", "Pt", "Au", "Hg", "Tl", "Pb", "Bi", "U" };
+	private static final double[] MONOISOTOPIC = { 1.00782503207, 4.00260325415, 7.01600455, 9.0121822, 11.0093054, 12.0, 14.0030740048, 15.99491461956, 18.99840322, 19.9924401754, 22.9897692809, 23.985041700, 26.98153863, 27.9769265325, 30.97376163, 31.97207100, 34.96885268, 39.9623831225, 38.96370668, 39.96259098, 44.9559119, 47.9479463, 50.9439595, 51.9405075, 54.9380451, 55.9349375, 58.9331950, 57.9353429, 62.9295975, 63.9291422, 68.9255736, 73.9211778, 74.9215965, 79.9165213, 78.9183371, 83.911507, 84.911789738, 87.9056121, 88.9058483, 89.9047044, 92.9063781, 97.9054082, 101.9043493, 102.905504, 105.903486, 106.905097, 113.9033585, 114.903878, 119.9021947, 120.9038157, 129.9062244, 126.904473, 131.9041535, 132.905451933, 137.9052472, 138.9063533, 157.9241039, 180.9479958, 183.9509312, 186.9557531, 191.9614807, 192.9629264, 194.9647911, 196.9665687, 201.970643, 204.9744275, 207.9766521, 208.9803987, 238.0507882 };
+	private static final double[] AVERAGE = { 1.00794, 4.002602, 6.941, 9.012182, 10.811, 12.0107, 14.0067, 15.9994, 18.9984032, 20.1797, 22.98976928, 24.3050, 26.9815386, 28.0855, 30.973762, 32.065, 35.453, 39.948, 39.0983, 40.078, 44.955912, 47.867, 50.9415, 51.9961, 54.938045, 55.845, 58.933195, 58.6934, 63.546, 65.38, 69.723, 72.64, 74.92160, 78.96, 79.904, 83.798, 85.4678, 87.62, 88.90585, 91.224, 92.90638, 95.96, 101.07, 102.90550, 106.42, 107.8682, 112.411, 114.818, 118.710, 121.760, 127.60, 126.90447, 131.293, 132.9054519, 137.327, 138.90547, 157.25, 180.94788, 183.84, 186.207, 190.23, 192.217, 195.084, 196.966569, 200.59, 204.3833, 207.2, 208.98040, 238.02891 };
+
+	private static volatile double[][] byId = { new double[0], new double[0] }; // [0]: monoisotopic, [1]: average
+
+	/**
+	 * @param elementId the id of an element in the {@link ElementTable}
+	 * @return the monoisotopic mass of the element, NaN if unknown
+	 */
+	public static double monoisotopic(int elementId) {
+		double[] masses = byId[0];
+		if (elementId >= masses.length) masses = update()[0];
+		return masses[elementId];
+	}
+
+	/**
+	 * @param elementId the id of an element in the {@link ElementTable}
+	 * @return the average mass of the element, NaN if unknown
+	 */
+	public static double average(int elementId) {
+		double[] masses = byId[1];
+		if (elementId >= masses.length) masses = update()[1];
+		return masses[elementId];
+	}
+
+	/**
+	 * @param symbol an element symbol, e.g. Fe
+	 * @return the monoisotopic mass of the element, NaN if unknown
+	 */
+	public static double monoisotopic(String symbol) {
+		return monoisotopic(ElementTable.id(symbol));
+	}
+
+	/**
+	 * @param symbol an element symbol, e.g. Fe
+	 * @return the average mass of the element, NaN if unknown
+	 */
+	public static double average(String symbol) {
+		return average(ElementTable.id(symbol));
+	}
+
+	/**
+	 * extends the id indexed tables to the elements registered in the meantime
+	 */
+	private static synchronized double[][] update() {
+		double[][] current = byId;
+		int size = ElementTable.size();
+		if (current[0].length >= size) return current;
+		double[] mono = new double[size];
+		double[] avg = new double[size];
+		for (int id = 0; id < size; id++) {
+			mono[id] = Double.NaN;
+			avg[id] = Double.NaN;
+			String symbol = ElementTable.symbol(id);
+			for (int i = 0; i < SYMBOLS.length; i++) {
+				if (SYMBOLS[i].equals(symbol)) {
+					mono[id] = MONOISOTOPIC[i];
+					avg[id] = AVERAGE[i];
+					break;
+				}
+			}
+		}
+		byId = new double[][] { mono, avg };
+		return byId;
+	}
+}
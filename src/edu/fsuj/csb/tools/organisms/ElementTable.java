@@ -0,0 +1,70 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * global symbol table for chemical elements. every element symbol gets a dense integer id on first use, so formulas can
+ * store their atom counts in primitive arrays indexed by element id
+ *
+ * @author Stephan Richter
+ *
+ */
+public class ElementTable {
+
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] symbols = new String[128];
+	private static int size = 0;
+
+	/**
+	 * returns the id of the given element symbol, registers the symbol if it is not known yet
+	 *
+	 * @param symbol the element symbol, e.g. "Fe"
+	 * @return the dense id of this element
+	 */
+	public static int id(String symbol) {
+		Integer id = ids.get(symbol);
+		if (id != null) return id;
+		return register(symbol);
+	}
+
+	/**
+	 * returns the id of the given element symbol without registering it
+	 *
+	 * @param symbol the element symbol
+	 * @return the id of the element, or -1 if the symbol has not been registered so far
+	 */
+	public static int lookup(String symbol) {
+		Integer id = ids.get(symbol);
+		return (id == null) ? -1 : id;
+	}
+
+	private static synchronized int register(String symbol) {
+		Integer id = ids.get(symbol);
+		if (id != null) return id;
+		String[] s = symbols;
+		if (size == s.length) {
+			String[] grown = new String[2 * size];
+			System.arraycopy(s, 0, grown, 0, size);
+			s = grown;
+		}
+		s[size] = symbol;
+		symbols = s; // publish the array before the id becomes visible
+		ids.put(symbol, size);
+		return size++;
+	}
+
+	/**
+	 * @param id the id of an element
+	 * @return the symbol of the element with the given id
+	 */
+	public static String symbol(int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * @return the number of elements registered so far
+	 */
+	public static int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,317 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * flux balance analysis of a compartment: steady state fluxes through its reactions (S*v = 0), which optimize a linear
+ * objective. the fluxes of the reactions are bounded according to their directions in the compartment: reactions firing
+ * only forward get [0, {@link #DEFAULT_BOUND}], reactions firing only backward [-{@link #DEFAULT_BOUND}, 0], reversible
+ * reactions [-{@link #DEFAULT_BOUND}, {@link #DEFAULT_BOUND}]. every substance has an inflow and an outflow, which are
+ * closed (bounded to zero) until opened by {@link #setInflowBounds(int, double, double)} or
+ * {@link #setOutflowBounds(int, double, double)}.
+ *
+ * the linear programs are solved by a {@link SparseSimplex}. it keeps the basis of the last solve, so after changing
+ * bounds or the objective, the next solve starts from the previous optimum.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FluxBalance {
+
+	/**
+	 * default limit of the absolute flux of a reaction
+	 */
+	public static final double DEFAULT_BOUND = 1000;
+
+	/**
+	 * the fluxes of an optimal solution
+	 */
+	public static class Result {
+		private final int status;
+		private final double objective;
+		private final StoichiometricMatrix matrix;
+		private final double[] fluxes;
+		private final int iterations;
+
+		private Result(int status, double objective, StoichiometricMatrix matrix, double[] fluxes, int iterations) {
+			this.status = status;
+			this.objective = objective;
+			this.matrix = matrix;
+			this.fluxes = fluxes;
+			this.iterations = iterations;
+		}
+
+		/**
+		 * @return the status of the solution, one of {@link SparseSimplex#OPTIMAL}, {@link SparseSimplex#INFEASIBLE},
+		 *         {@link SparseSimplex#UNBOUNDED} and {@link SparseSimplex#ITERATION_LIMIT}
+		 */
+		public int status() {
+			return status;
+		}
+
+		/**
+		 * @return true, if an optimal solution has been found
+		 */
+		public boolean isOptimal() {
+			return status == SparseSimplex.OPTIMAL;
+		}
+
+		/**
+		 * @return the value of the objective
+		 */
+		public double objective() {
+			return objective;
+		}
+
+		/**
+		 * @return the number of simplex iterations needed
+		 */
+		public int iterations() {
+			return iterations;
+		}
+
+		/**
+		 * @param reactionId the id of a reaction of the compartment
+		 * @return the flux through the reaction, negative if it runs backward
+		 */
+		public double flux(int reactionId) {
+			return fluxes[column(matrix, reactionId)];
+		}
+
+		/**
+		 * @return the non-zero fluxes, mapped from reaction ids
+		 */
+		public TreeMap<Integer, Double> fluxes() {
+			TreeMap<Integer, Double> result = new TreeMap<Integer, Double>();
+			for (int j = 0; j < matrix.columns(); j++)
+				if (fluxes[j] != 0) result.put(matrix.reaction(j), fluxes[j]);
+			return result;
+		}
+
+		/**
+		 * @param substanceId the id of a substance utilized by the compartment
+		 * @return the amount of the substance taken up
+		 */
+		public double inflow(int substanceId) {
+			return fluxes[matrix.columns() + 2 * row(matrix, substanceId)];
+		}
+
+		/**
+		 * @param substanceId the id of a substance utilized by the compartment
+		 * @return the amount of the substance released
+		 */
+		public double outflow(int substanceId) {
+			return fluxes[matrix.columns() + 2 * row(matrix, substanceId) + 1];
+		}
+
+		public String toString() {
+			if (!isOptimal()) return "no optimal flux distribution (status " + status + ")";
+			return "optimal flux distribution, objective " + objective + ": " + fluxes();
+		}
+	}
+
+	private final Compartment compartment;
+	private final StoichiometricMatrix matrix;
+	private final SparseSimplex simplex;
+
+	/**
+	 * sets up the flux balance problem of a compartment. reactions without direction in the compartment are left out
+	 *
+	 * @param compartment the compartment
+	 */
+	public FluxBalance(Compartment compartment) {
+		this.compartment = compartment;
+		matrix = compartment.stoichiometricMatrix(false);
+		int rows = matrix.rows(), columns = matrix.columns();
+
+		// reaction columns followed by an inflow (+1) and an outflow (-1) column per substance
+		int[] start = Arrays.copyOf(matrix.columnStart(), columns + 2 * rows + 1);
+		int entries = matrix.entries();
+		int[] rowIndices = Arrays.copyOf(matrix.rowIndices(), entries + 2 * rows);
+		double[] values = Arrays.copyOf(matrix.columnValues(), entries + 2 * rows);
+		for (int i = 0; i < rows; i++) {
+			rowIndices[entries + 2 * i] = i;
+			values[entries + 2 * i] = 1;
+			rowIndices[entries + 2 * i + 1] = i;
+			values[entries + 2 * i + 1] = -1;
+			start[columns + 2 * i + 1] = entries + 2 * i + 1;
+			start[columns + 2 * i + 2] = entries + 2 * i + 2;
+		}
+		simplex = new SparseSimplex(rows, start, rowIndices, values, new double[rows]);
+		for (int j = 0; j < columns; j++)
+			simplex.setBounds(j, (matrix.direction(j) == 1) ? 0 : -DEFAULT_BOUND, (matrix.direction(j) == -1) ? 0 : DEFAULT_BOUND);
+		for (int j = columns; j < columns + 2 * rows; j++)
+			simplex.setBounds(j, 0, 0);
+	}
+
+	/**
+	 * @return the compartment analyzed
+	 */
+	public Compartment compartment() {
+		return compartment;
+	}
+
+	/**
+	 * @return the stoichiometric matrix of the compartment, whose columns are the reactions of the flux vectors
+	 */
+	public StoichiometricMatrix matrix() {
+		return matrix;
+	}
+
+	/**
+	 * restricts the flux through a reaction. the bounds are intersected with the directions of the reaction in the
+	 * compartment, as taken from {@link Reaction#firesForwardIn(Compartment)} and {@link Reaction#firesBackwardIn(Compartment)}
+	 *
+	 * @param reactionId the id of a reaction of the compartment
+	 * @param lower the minimal flux, negative values allow backward flux
+	 * @param upper the maximal flux
+	 */
+	public void setReactionBounds(int reactionId, double lower, double upper) {
+		if (lower > upper) throw new IllegalArgumentException("lower bound " + lower + " exceeds upper bound " + upper);
+		int j = column(matrix, reactionId);
+		Reaction reaction = Reaction.get(reactionId);
+		if (!reaction.firesBackwardIn(compartment)) lower = Math.max(lower, 0);
+		if (!reaction.firesForwardIn(compartment)) upper = Math.min(upper, 0);
+		simplex.setBounds(j, lower, upper);
+	}
+
+	/**
+	 * @param substanceId the id of a substance utilized by the compartment
+	 * @param lower the minimal uptake of the substance
+	 * @param upper the maximal uptake of the substance, zero closes the inflow
+	 */
+	public void setInflowBounds(int substanceId, double lower, double upper) {
+		simplex.setBounds(matrix.columns() + 2 * row(matrix, substanceId), checkFlow(lower, upper), upper);
+	}
+
+	/**
+	 * @param substanceId the id of a substance utilized by the compartment
+	 * @param lower the minimal release of the substance
+	 * @param upper the maximal release of the substance, zero closes the outflow
+	 */
+	public void setOutflowBounds(int substanceId, double lower, double upper) {
+		simplex.setBounds(matrix.columns() + 2 * row(matrix, substanceId) + 1, checkFlow(lower, upper), upper);
+	}
+
+	private static double checkFlow(double lower, double upper) {
+		if (lower < 0) throw new IllegalArgumentException("flows can not be negative, found " + lower);
+		if (lower > upper) throw new IllegalArgumentException("lower bound " + lower + " exceeds upper bound " + upper);
+		return lower;
+	}
+
+	/**
+	 * @param reactionId the id of a reaction of the compartment
+	 * @param coefficient the weight of the reaction's flux in the objective
+	 */
+	public void setReactionObjective(int reactionId, double coefficient) {
+		simplex.setCost(column(matrix, reactionId), coefficient);
+	}
+
+	/**
+	 * @param substanceId the id of a substance utilized by the compartment
+	 * @param coefficient the weight of the substance's inflow in the objective
+	 */
+	public void setInflowObjective(int substanceId, double coefficient) {
+		simplex.setCost(matrix.columns() + 2 * row(matrix, substanceId), coefficient);
+	}
+
+	/**
+	 * @param substanceId the id of a substance utilized by the compartment
+	 * @param coefficient the weight of the substance's outflow in the objective
+	 */
+	public void setOutflowObjective(int substanceId, double coefficient) {
+		simplex.setCost(matrix.columns() + 2 * row(matrix, substanceId) + 1, coefficient);
+	}
+
+	/**
+	 * sets all coefficients of the objective to zero
+	 */
+	public void clearObjective() {
+		for (int j = 0; j < simplex.columns(); j++)
+			simplex.setCost(j, 0);
+	}
+
+	/**
+	 * @param limit the maximum number of simplex iterations per solve
+	 */
+	public void setIterationLimit(int limit) {
+		simplex.setIterationLimit(limit);
+	}
+
+	/**
+	 * @return the flux distribution minimizing the objective
+	 */
+	public Result minimize() {
+		int status = simplex.solve();
+		return new Result(status, simplex.objective(), matrix, simplex.values(), simplex.iterations());
+	}
+
+	/**
+	 * @return the flux distribution maximizing the objective
+	 */
+	public Result maximize() {
+		negateObjective();
+		try {
+			int status = simplex.solve();
+			return new Result(status, -simplex.objective(), matrix, simplex.values(), simplex.iterations());
+		} finally {
+			negateObjective();
+		}
+	}
+
+	/**
+	 * searches for the smallest exchange with the environment, which allows to consume the given substrates and to
+	 * produce the given products (the linear variant of doc/optimization.strk): the substrates have to be taken up and the
+	 * products released at a rate of at least one, all other substances may flow in and out, and the sum of these other
+	 * flows is minimized. replaces all inflow and outflow bounds as well as the objective
+	 *
+	 * @param substrateIds the substances to be consumed
+	 * @param productIds the substances to be produced
+	 * @return the flux distribution, whose objective is the sum of the additional flows
+	 */
+	public Result minimizeExchanges(Collection<Integer> substrateIds, Collection<Integer> productIds) {
+		for (Integer sid : substrateIds) {
+			row(matrix, sid);
+			if (productIds.contains(sid)) throw new IllegalArgumentException("substance " + sid + " can not be both consumed and produced");
+		}
+		for (Integer sid : productIds)
+			row(matrix, sid);
+		clearObjective();
+		int columns = matrix.columns();
+		for (int i = 0; i < matrix.rows(); i++) {
+			int sid = matrix.substance(i), in = columns + 2 * i, out = in + 1;
+			if (productIds.contains(sid)) {
+				simplex.setBounds(in, 0, 0);
+				simplex.setBounds(out, 1, DEFAULT_BOUND);
+			} else if (substrateIds.contains(sid)) {
+				simplex.setBounds(in, 1, DEFAULT_BOUND);
+				simplex.setBounds(out, 0, 0);
+			} else {
+				simplex.setBounds(in, 0, DEFAULT_BOUND);
+				simplex.setBounds(out, 0, DEFAULT_BOUND);
+				simplex.setCost(in, 1);
+				simplex.setCost(out, 1);
+			}
+		}
+		return minimize();
+	}
+
+	private void negateObjective() {
+		for (int j = 0; j < simplex.columns(); j++)
+			simplex.setCost(j, -simplex.cost(j));
+	}
+
+	private static int column(StoichiometricMatrix matrix, int reactionId) {
+		int j = matrix.column(reactionId);
+		if (j < 0) throw new IllegalArgumentException("reaction " + reactionId + " does not fire in the compartment");
+		return j;
+	}
+
+	private static int row(StoichiometricMatrix matrix, int substanceId) {
+		int i = matrix.rowOf(substanceId);
+		if (i < 0) throw new IllegalArgumentException("substance " + substanceId + " is not utilized by the compartment");
+		return i;
+	}
+}
@@ -1,11 +1,11 @@
 package edu.fsuj.csb.tools.organisms;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.DataFormatException;
@@ -26,6 +26,10 @@ public class Formula {
 	private String formula;
 	private TreeMap<String, Double> atoms = new TreeMap<String, Double>(ObjectComparator.get());
 	public static final int VARIABLE_REPLACEMENT = 5;
+	private static final FormulaCache cache = new FormulaCache(Integer.getInteger("formula.cache.size", 100000));
+	private boolean immutable = false;
+	private volatile boolean massesCalculated = false; // volatile: shared formulas may calculate their masses concurrently
+	private double monoisotopicMass, averageMass;
 
 
 	/**
@@ -36,19 +40,29 @@ public class Formula {
 	 */
 	
 	public Formula(String formula) throws DataFormatException {
-		Tools.startMethod("new Formula("+formula+")");
-		Stack<Character> stack=new Stack<Character>();
-		int i=formula.length();
-		if (formula.endsWith(".")) i--; // ignore trailing dot
-		for (; i>0; i--) stack.push(formula.charAt(i-1));
+		this(formula,true);
+	}
+
+	/**
+	 * creates new formula
+	 * 
+	 * @param formula
+	 * @param reportErrors if set, malformed formulas and ignored upper limits of ranges are reported on System.err
+	 * @throws FormulaFormatException
+	 */
+	Formula(String formula,boolean reportErrors) throws FormulaFormatException {
+		int trace=Trace.start(Trace.FORMULA, "new Formula", formula);
 		this.formula=formula;
+		FormulaParser parser = FormulaParser.get();
 		try {
-			parseFormula(stack);
-		} catch (DataFormatException dfe){
-			System.err.println("Data format error in '"+formula+"'");
+			parser.parse(formula);
+		} catch (FormulaFormatException dfe){
+			if (reportErrors) System.err.println("Data format error in '"+formula+"'");
 			throw dfe;
 		}
-		Tools.endMethod(this);
+		if (reportErrors && !Double.isNaN(parser.ignoredLimit())) Tools.warn("ignoring upper limit "+parser.ignoredLimit());
+		for (int i=0; i<parser.size(); i++) atoms.put(parser.symbol(i), parser.count(i));
+		Trace.end(trace, this);
   }
 
 	
@@ -57,64 +71,63 @@ public class Formula {
 		initialize();
 	}
 
+	/**
+	 * returns the formula for the given string. identical strings are parsed only once, the returned instances are shared
+	 * and therefore immutable. use clone() to obtain a modifiable copy
+	 * 
+	 * @param formula the formula string
+	 * @return the shared formula object
+	 * @throws DataFormatException
+	 */
+	public static Formula valueOf(String formula) throws DataFormatException {
+		return cache.get(formula);
+	}
 
+	/**
+	 * @return the cache used by valueOf, e.g. to read its hit and miss statistics
+	 */
+	public static FormulaCache cache() {
+		return cache;
+	}
 
-	private void parseFormula(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseFormula["+stackString(stack)+"]");
-		initialize();
-		atoms=parseMolecule(stack);
-	  while (!stack.isEmpty()){
-	  	parseSeparator(stack);
-	  	atoms=unite(atoms,parseMolecule(stack));
-	  }
-	  Tools.endMethod();
-  }
-
-	private TreeMap<String, Double> unite(TreeMap<String, Double> atoms, TreeMap<String, Double> summand) {
-		for (String key:summand.keySet()){
-			if (atoms.containsKey(key)){
-				atoms.put(key, atoms.get(key)+summand.get(key));
-			} else atoms.put(key, summand.get(key));
-		}
-	  return atoms;
-  }
+	/**
+	 * prevents further modifications of this formula
+	 */
+	void makeImmutable() {
+		immutable=true;
+	}
 
-	private void parseSeparator(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseSeparator["+stackString(stack)+"]");
-		while (stack.peek()==' ') stack.pop();
-		if ((stack.peek()=='.')) stack.pop();
-		while (stack.peek()==' ') stack.pop();
-		Tools.endMethod();
-  }
+	/**
+	 * drops the values derived from the atom counts, so they are calculated again on request
+	 */
+	private void changed() {
+		formula=null;
+		massesCalculated=false;
+	}
 
-	private void dataFormatException(Stack<Character> stack) throws DataFormatException {
-	  throw new DataFormatException(stackString(stack));
-  }
+	private void checkMutable() {
+		if (immutable) throw new UnsupportedOperationException("Tried to modify shared formula "+this+". Use clone() to obtain a modifiable copy!");
+	}
 
-	private String stackString(Stack<Character> stack) {
-		StringBuffer sb=new StringBuffer();
-		sb.append(' ');
-		Object[] array = stack.toArray();
-		for (Object o:array) sb.insert(1, o);
-		sb.append(' ');
-	  return sb.toString();
-  }
+	/**
+	 * creates a new formula from the given atom counts. the map is not copied
+	 * @param atoms mapping from element symbols to stoichiometries
+	 */
+	Formula(TreeMap<String, Double> atoms) {
+		this.atoms=atoms;
+	}
 
-	private TreeMap<String, Double> parseMolecule(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseMolecule["+stackString(stack)+"]");
-		
-		Double variable=parseCount(stack); 
-		TreeMap<String,Double> groups=parseGroup(stack);
-		if (groups==null) dataFormatException(stack);
-		TreeMap<String, Double> group=parseGroup(stack);
-		while (group!=null){
-			groups=unite(groups,group);
-			group=parseGroup(stack);
-		}
-		if (variable!=null) groups=multiply(groups,variable);
-		Tools.endMethod(groups);
-		return groups;
-  }
+	/**
+	 * creates a copy of the given formula without parsing it again
+	 * @param original the formula to be copied
+	 */
+	private Formula(Formula original) {
+		atoms=new TreeMap<String, Double>(original.atoms);
+		formula=original.formula;
+		massesCalculated=original.massesCalculated;
+		monoisotopicMass=original.monoisotopicMass;
+		averageMass=original.averageMass;
+	}
 
 	private TreeMap<String, Double> multiply(TreeMap<String, Double> atoms, double factor) {
 		for (String key:atoms.keySet()){
@@ -123,164 +136,6 @@ public class Formula {
 	  return atoms;
   }
 
-	private TreeMap<String, Double> parseGroup(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseGroup("+stackString(stack)+")");
-		if (stack.isEmpty()){
-			Tools.endMethod(null);
-			return null;
-		}
-		if (stack.peek()=='('||stack.peek()=='['){
-			Tools.indent("found opening bracket!");
-			stack.pop();
-			TreeMap<String, Double> sum = parseMolecule(stack);
-			if (sum==null || stack.isEmpty()) dataFormatException(stack);
-			while (!(stack.peek()==')'||stack.peek()==']')){
-				if (stack.peek()==' '||stack.peek()=='.') parseSeparator(stack);
-				TreeMap<String, Double> summand = parseMolecule(stack);
-				sum=unite(sum, summand);
-				if (stack.isEmpty()) dataFormatException(stack);
-			}			
-			Tools.indent("found closing bracket!");
-			stack.pop();
-			Double count=parseCount(stack);
-			if (count!=null) sum=multiply(sum, count);
-			Tools.endMethod(sum);
-			return sum;
-		}
-		TreeMap<String, Double> sum = parseStoich(stack);
-		while (!stack.isEmpty()){
-			TreeMap<String, Double> summand = parseStoich(stack);
-			if (summand==null) break;
-			sum=unite(sum, summand);
-		}
-		Tools.endMethod(sum);
-		return sum;
-	}
-
-	private Double parseCount(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseCount["+stackString(stack)+"]");
-		Double result=null;
-		if (!stack.isEmpty()){
-			if (Character.isDigit(stack.peek())) result = parseDouble(stack);
-			if (!stack.isEmpty() && stack.peek()=='-'){
-				stack.pop();
-				double upperLimit=parseDouble(stack);
-				Tools.warn("ignoring upper limit "+upperLimit);
-			}
-			if (!stack.isEmpty() && Character.isLowerCase(stack.peek())) {
-				result=(result==null)?parseVariable(stack):parseVariable(stack)*result;
-			}
-		}
-		Tools.endMethod(result);			
-		return result;			
-
-  }
-
-	private Double parseDouble(Stack<Character> stack) {
-		Tools.startMethod("parseDouble["+stackString(stack)+"]");
-		Integer prefix=parseInteger(stack);
-		if (prefix==null){
-			Tools.endMethod(null);
-			return null;
-		}
-		StringBuffer sb=new StringBuffer();
-		sb.append(prefix);
-		if (!stack.isEmpty() && stack.peek()=='.'){
-			sb.append(stack.pop());
-			if (!stack.isEmpty() && !Character.isDigit(stack.peek())){
-				stack.push('.'); // if we find a dot, which is not followed by a digit, this dot does not belong to the formula. Put it back!
-			} else sb.append(parseInteger(stack));
-			sb.append('0');
-		}
-	  String dummy=sb.toString();
-	  Double result=null;
-	  if (dummy.length()>0) result=Double.parseDouble(dummy);
-	  Tools.endMethod(result);
-	  return result;
-  }
-
-	private TreeMap<String, Double> parseStoich(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseStoich["+stackString(stack)+"]");
-		if (stack.isEmpty() || !Character.isUpperCase(stack.peek())){
-			Tools.endMethod(null);
-			return null;
-		}
-		String atom=parsAtom(stack);		
-		Double number=parseDouble(stack);
-		parseExponent(stack);
-		TreeMap<String, Double> result=new TreeMap<String, Double>(ObjectComparator.get());
-		result.put(atom, 1.0);
-		if (number!=null) result=multiply(result, number);
-		Tools.endMethod(result);
-	  return result;
-  }
-
-	private void parseExponent(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseExponent["+stackString(stack)+"]");
-		if (stack.isEmpty() || (stack.peek()!='^')){
-			Tools.endMethod();
-			return;
-		}
-		stack.pop();
-		parseInteger(stack);
-		if ((stack.peek()!='+') && (stack.peek()!='-')) dataFormatException(stack);
-		stack.pop();
-		Tools.endMethod();
-  }
-
-
-
-	private String parsAtom(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parsAtom["+stackString(stack)+"]");
-		String result="";
-		if (!Character.isUpperCase(stack.peek())) dataFormatException(stack);
-		result+=stack.pop();		
-		if (!stack.empty() && Character.isLowerCase(stack.peek())) result+=stack.pop();
-		while (!stack.isEmpty() && stack.peek()==','){
-			result+=stack.pop();
-			if (!Character.isUpperCase(stack.peek())) dataFormatException(stack);
-			result+=stack.pop();		
-			if (!stack.empty() && Character.isLowerCase(stack.peek())) result+=stack.pop();
-		}
-		Tools.endMethod(result);
-	  return result;
-  }
-
-	private Double parseVariable(Stack<Character> stack) throws DataFormatException {
-		Tools.startMethod("parseVariable["+stackString(stack)+"]");
-		String name="";
-		Double result=(double)VARIABLE_REPLACEMENT;
-		if (!Character.isLowerCase(stack.peek())) dataFormatException(stack);
-		while (!stack.isEmpty() && Character.isLowerCase(stack.peek())) name+=stack.pop();
-		if (!stack.isEmpty() && Character.isDigit(stack.peek())) name=name+parseInteger(stack);
-		Tools.indent("found "+name);
-		if (!stack.isEmpty() && (stack.peek()=='+' || stack.peek()=='-')){
-			char sign=stack.pop();
-			Double term=parseCount(stack);
-			result=(sign=='+')?result+term:result-term;
-			Tools.indent(sign+" "+term);
-		}
-		Tools.endMethod(result);
-	  return result;
-  }
-
-	private Integer parseInteger(Stack<Character> stack) {
-		Tools.startMethod("parseInteger["+stackString(stack)+"]");
-		if (stack.isEmpty()|| !Character.isDigit(stack.peek())){
-			Tools.endMethod(null);
-			return null;
-		}
-		StringBuffer sb=new StringBuffer();
-		while (!stack.isEmpty() && Character.isDigit(stack.peek()))	sb.append(stack.pop());
-	  String dummy=sb.toString();
-	  Integer result=null;
-	  if (dummy.length()>0) result=Integer.parseInt(dummy);
-	  Tools.endMethod(result);
-	  return result;
-  }
-
-
-
 	private void initialize() {
 	  atoms=new TreeMap<String, Double>(ObjectComparator.get());
   }
@@ -293,6 +148,7 @@ public class Formula {
 	 * @throws DataFormatException
 	 */
 	public void add(Formula f) throws DataFormatException {
+		checkMutable();
 		for (Iterator<Entry<String, Double>> it = f.atoms.entrySet().iterator(); it.hasNext();) {
 			Entry<String, Double> atomEntry = it.next();
 			String atom = atomEntry.getKey();
@@ -300,10 +156,11 @@ public class Formula {
 			if (atoms.containsKey(atom)) stoich += atoms.get(atom);
 			atoms.put(atom, stoich);
 		}
-		calculateFormula();
+		changed();
 	}
 	
 	public void subtract(Formula f) {
+		checkMutable();
 		for (Iterator<Entry<String, Double>> it = f.atoms.entrySet().iterator(); it.hasNext();) {
 			Entry<String, Double> atomEntry = it.next();
 			String atom = atomEntry.getKey();
@@ -316,11 +173,19 @@ public class Formula {
 			}
 			atoms.put(atom, stoich);
 		}
-		calculateFormula();
+		changed();
   }
 
+	/**
+	 * renders the formula string from the atom map, e.g. C6.0H12.0O6.0
+	 */
 	private void calculateFormula() {
-		formula = atoms.toString().replace("{", "").replace("}", "").replace("=", "").replace(", ", "");
+		StringBuffer sb=new StringBuffer();
+		for (Entry<String, Double> entry:atoms.entrySet()){
+			sb.append(entry.getKey());
+			sb.append(entry.getValue().doubleValue());
+		}
+		formula = sb.toString();
 	}
 
 	/**
@@ -346,9 +211,9 @@ public class Formula {
 	 * @throws DataFormatException
 	 */
 	public Formula multiply(double i) throws DataFormatException {
-		Formula result = new Formula(formula);
+		Formula result = new Formula(this);
 		multiply(result.atoms, i);
-		result.calculateFormula();
+		result.changed();
 		return result;
 
 	}
@@ -363,9 +228,10 @@ public class Formula {
 	}
 
 	/**
-	 * @return the formula string
+	 * @return the formula string. formulas resulting from calculations are rendered on first request
 	 */
 	public String get() {
+		if (formula==null) calculateFormula();
 		return formula;
 	}
 
@@ -378,15 +244,83 @@ public class Formula {
 		return atoms.equals(f.atoms);
 	}
 
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Formula)) return false;
+		return equals((Formula) o);
+	}
+
+	@Override
+	public int hashCode() {
+	  return atoms.hashCode();
+	}
+
 	
+	/**
+	 * @return the monoisotopic mass of this formula (sum of the masses of the most abundant isotopes), NaN if the formula
+	 *         contains elements with unknown mass
+	 */
+	public double monoisotopicMass() {
+		if (!massesCalculated) calculateMasses();
+		return monoisotopicMass;
+	}
+
+	/**
+	 * @return the average mass of this formula (sum of the standard atomic weights), NaN if the formula contains elements with
+	 *         unknown mass
+	 */
+	public double averageMass() {
+		if (!massesCalculated) calculateMasses();
+		return averageMass;
+	}
+
+	/**
+	 * calculates the isotopic distribution of this formula
+	 * @param threshold peaks with a probability below this value are dropped
+	 * @param maxPeaks the maximum number of peaks kept
+	 * @param fine if set, the fine distribution is calculated, the aggregated one otherwise
+	 * @return the isotope pattern, or null, if the formula contains elements without isotope data or non-integer counts
+	 */
+	public IsotopePattern isotopePattern(double threshold, int maxPeaks, boolean fine) {
+		return IsotopePattern.of(this, threshold, maxPeaks, fine);
+	}
+
+	private void calculateMasses() {
+		double mono=0, avg=0;
+		for (Entry<String, Double> entry:atoms.entrySet()){
+			int id=ElementTable.id(entry.getKey());
+			double count=entry.getValue();
+			mono+=count*ElementMasses.monoisotopic(id);
+			avg+=count*ElementMasses.average(id);
+		}
+		monoisotopicMass=mono;
+		averageMass=avg;
+		massesCalculated=true;
+	}
+
 	public String atoms() {
 		return atoms.toString();
 	}
 
 	public Set<String> atomSet() {
+		if (immutable) return Collections.unmodifiableSet(atoms.keySet());
 		return atoms.keySet();
 	}
 
+	/**
+	 * @return the mapping from element symbols to stoichiometries backing this formula
+	 */
+	TreeMap<String, Double> atomMap() {
+		return atoms;
+	}
+
+	/**
+	 * @return the compact, immutable representation of this formula
+	 */
+	public CompactFormula compact() {
+		return CompactFormula.of(this);
+	}
+
 	public Formula stoichiometricDifference(Formula secondFormula) throws DataFormatException {
 		Formula result = new Formula();
 
@@ -402,7 +336,6 @@ public class Formula {
 			if (stoich != 0.0) result.atoms.put(element, stoich);
 		}
 
-		result.calculateFormula();
 		return result;
 	}
 
@@ -444,17 +377,12 @@ public class Formula {
 			String atom = atomIt.next();
 			if (dummy.contains(atom)) result.atoms.remove(atom);
 		}
-		result.calculateFormula();
+		result.changed();
 		return result;
 	}
 
 	public Formula clone() {
-		try {
-			return new Formula(formula);
-		} catch (DataFormatException e) {
-			e.printStackTrace();
-			return null;
-		}
+		return new Formula(this);
 	}
 
 	public boolean isEmpty() {
@@ -466,93 +394,96 @@ public class Formula {
   }
 
 	/********** generator methods ********************/
-	@SuppressWarnings("unused")
-  private static String generateFormula() {		
+
+	/**
+	 * generates a random string matching the formula grammar. the atoms are random letters, not necessarily real elements
+	 * @param r the source of randomness, use a seeded instance to obtain reproducible formulas
+	 * @param maxLength the maximum length of the generated formula
+	 * @return a random formula string
+	 */
+  static String generateFormula(Random r,int maxLength) {		
 		String result;
 		do{
-			result=generateMolecule();
-			while (random()){
-				result+=generateSeparator()+generateMolecule();
+			result=generateMolecule(r);
+			while (random(r)){
+				result+=generateSeparator(r)+generateMolecule(r);
 			}
-		} while (result.length()>20);
+		} while (result.length()>maxLength);
 		return result;
   }
 
-	private static String generateSeparator() {
+	private static String generateSeparator(Random r) {
 		String result="";
-		while (random()) result+=" ";
+		while (random(r)) result+=" ";
 		result+=".";
-		while (random()) result+=" ";
+		while (random(r)) result+=" ";
 	  return result;
   }
 
-	private static String generateMolecule() {
+	private static String generateMolecule(Random r) {
 		String result="";
-		if (random()) result+=generateVariable();
-		result+=generateGroup();
-		while (random()) result+=generateGroup();
+		if (random(r)) result+=generateVariable(r);
+		result+=generateGroup(r);
+		while (random(r)) result+=generateGroup(r);
 	  return result;
   }
 
-	private static String generateGroup() {
-		if (random()){
-			String result=generateStoich();
-			while (random()) result+=generateStoich();
+	private static String generateGroup(Random r) {
+		if (random(r)){
+			String result=generateStoich(r);
+			while (random(r)) result+=generateStoich(r);
 			return result;
 		} 
-		String result="("+generateGroup();
-		while (random()) {
-			if (random()) result+=generateSeparator();
-			result+=generateStoich();
+		String result="("+generateGroup(r);
+		while (random(r)) {
+			if (random(r)) result+=generateSeparator(r);
+			result+=generateStoich(r);
 		}
 		result+=")";
-		if (random()) result+=generateCount();
+		if (random(r)) result+=generateCount(r);
 	  return result;
   }
 
-	private static String generateStoich() {		
-		String result=""+generateAtom();
-		if (random()) result+=generateNumber();
+	private static String generateStoich(Random r) {		
+		String result=""+generateAtom(r);
+		if (random(r)) result+=generateNumber(r);
 	  return result;
   }
 
-	private static String generateAtom() {
-	  String result=""+generateMajuscle();
-	  if (random()) result+=generateMinuscle();
+	private static String generateAtom(Random r) {
+	  String result=""+generateMajuscle(r);
+	  if (random(r)) result+=generateMinuscle(r);
 	  return result;
   }
 
-	private static char generateMinuscle() {
-	  Random r = new Random();
+	private static char generateMinuscle(Random r) {
 		return (char) (r.nextInt(26) + 'a');  
   }
 
-	private static char generateMajuscle() {
-	  Random r = new Random();
+	private static char generateMajuscle(Random r) {
 		return (char) (r.nextInt(26) + 'A');  
 	}
 
-	private static String generateCount() {
-	  return random()?generateNumber():generateVariable();
+	private static String generateCount(Random r) {
+	  return random(r)?generateNumber(r):generateVariable(r);
   }
 
-	private static String generateVariable() {
-	  return ""+generateMinuscle();
+	private static String generateVariable(Random r) {
+	  return ""+generateMinuscle(r);
   }
 
-	private static String generateNumber() {
-		Random r=new Random();
+	private static String generateNumber(Random r) {
 		String number=""+r.nextInt(10);
-		while (!number.equals("0") && random()) number+=r.nextInt(10);
-		if (number.equals("0") || random()) {
+		while (!number.equals("0") && random(r)) number+=r.nextInt(10);
+		if (number.equals("0") || random(r)) {
 			number+="."+r.nextInt(10);
-			while (number.endsWith("0") || random()) number+=r.nextInt(10);
+			while (number.endsWith("0") || random(r)) number+=r.nextInt(10);
 		}
 	  return number;
   }
 
-	private static boolean random() {
-	  return Math.random()>0.45;
+	private static boolean random(Random r) {
+	  return r.nextDouble()>0.45;
   }
 
 	public static void main(String[] args) throws DataFormatException {
@@ -0,0 +1,161 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import edu.fsuj.csb.tools.xml.ObjectComparator;
+
+/**
+ * mutable sum of (scaled) formulas. the counts are kept in an array indexed by the ids of the {@link ElementTable}, so
+ * adding a formula neither parses nor renders anything. a formula string is only created on request.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaAccumulator {
+
+	private double[] counts; // element id => count
+	private int[] used; // ids of the elements touched since the last reset
+	private boolean[] isUsed;
+	private int usedCount = 0;
+
+	/**
+	 * creates a new, empty accumulator
+	 */
+	public FormulaAccumulator() {
+		int capacity = Math.max(16, ElementTable.size());
+		counts = new double[capacity];
+		isUsed = new boolean[capacity];
+		used = new int[16];
+	}
+
+	/**
+	 * adds the given formula to the sum
+	 *
+	 * @param f the formula to be added
+	 */
+	public void add(Formula f) {
+		add(f, 1.0);
+	}
+
+	/**
+	 * adds a multiple of the given formula to the sum
+	 *
+	 * @param f the formula to be added
+	 * @param factor the factor, with which the formula is multiplied. use negative factors to subtract
+	 */
+	public void add(Formula f, double factor) {
+		for (Entry<String, Double> entry : f.atomMap().entrySet()) {
+			add(ElementTable.id(entry.getKey()), factor * entry.getValue());
+		}
+	}
+
+	/**
+	 * adds a multiple of the given formula to the sum
+	 *
+	 * @param f the formula to be added
+	 * @param factor the factor, with which the formula is multiplied. use negative factors to subtract
+	 */
+	public void add(CompactFormula f, double factor) {
+		for (int i = 0; i < f.size(); i++)
+			add(f.element(i), factor * f.countAt(i));
+	}
+
+	/**
+	 * adds count atoms of the given element
+	 *
+	 * @param elementId the id of the element in the {@link ElementTable}
+	 * @param count the number of atoms to add
+	 */
+	public void add(int elementId, double count) {
+		if (elementId >= counts.length) grow(elementId + 1);
+		if (!isUsed[elementId]) {
+			if (usedCount == used.length) {
+				int[] grown = new int[2 * usedCount];
+				System.arraycopy(used, 0, grown, 0, usedCount);
+				used = grown;
+			}
+			used[usedCount++] = elementId;
+			isUsed[elementId] = true;
+		}
+		counts[elementId] += count;
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = Math.max(minCapacity, 2 * counts.length);
+		double[] newCounts = new double[capacity];
+		boolean[] newUsed = new boolean[capacity];
+		System.arraycopy(counts, 0, newCounts, 0, counts.length);
+		System.arraycopy(isUsed, 0, newUsed, 0, isUsed.length);
+		counts = newCounts;
+		isUsed = newUsed;
+	}
+
+	/**
+	 * @param symbol an element symbol
+	 * @return the current count of the given element
+	 */
+	public double count(String symbol) {
+		int id = ElementTable.lookup(symbol);
+		if (id < 0 || id >= counts.length) return 0.0;
+		return counts[id];
+	}
+
+	/**
+	 * @return true, if the counts of all elements are zero, e.g. after adding the substrates and subtracting the products of a
+	 *         balanced reaction
+	 */
+	public boolean isEmpty() {
+		for (int i = 0; i < usedCount; i++) {
+			if (counts[used[i]] != 0.0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * resets the accumulator to zero
+	 */
+	public void clear() {
+		for (int i = 0; i < usedCount; i++) {
+			counts[used[i]] = 0.0;
+			isUsed[used[i]] = false;
+		}
+		usedCount = 0;
+	}
+
+	private TreeMap<String, Double> atoms() {
+		TreeMap<String, Double> atoms = new TreeMap<String, Double>(ObjectComparator.get());
+		for (int i = 0; i < usedCount; i++) {
+			double count = counts[used[i]];
+			if (count != 0.0) atoms.put(ElementTable.symbol(used[i]), count);
+		}
+		return atoms;
+	}
+
+	/**
+	 * @return a new formula holding the current sum. elements with zero count are left out
+	 */
+	public Formula toFormula() {
+		return new Formula(atoms());
+	}
+
+	/**
+	 * @return a new compact formula holding the current sum
+	 */
+	public CompactFormula toCompactFormula() {
+		int[] ids = new int[usedCount];
+		double[] values = new double[usedCount];
+		for (int i = 0; i < usedCount; i++) {
+			ids[i] = used[i];
+			values[i] = counts[used[i]];
+		}
+		return CompactFormula.create(ids, values, usedCount);
+	}
+
+	/**
+	 * @return the current sum as formula string, e.g. C6H12O6
+	 */
+	public String toString() {
+		return toFormula().toString();
+	}
+}
@@ -0,0 +1,318 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * parses large numbers of (id, formula) records in parallel. malformed formulas do not abort the run, they are collected
+ * in the result together with the position and reason of the failure.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaBatchParser {
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = 4096;
+	private boolean shared = true;
+
+	/**
+	 * describes a record, which could not be parsed
+	 */
+	public static class ParseError {
+		private int id;
+		private int line;
+		private String formula;
+		private int position;
+		private String reason;
+
+		ParseError(int id, int line, String formula, int position, String reason) {
+			this.id = id;
+			this.line = line;
+			this.formula = formula;
+			this.position = position;
+			this.reason = reason;
+		}
+
+		/**
+		 * @return the id of the record, or -1 if the record had no valid id
+		 */
+		public int id() {
+			return id;
+		}
+
+		/**
+		 * @return the line number of the record, if it was read from a file, -1 otherwise
+		 */
+		public int line() {
+			return line;
+		}
+
+		/**
+		 * @return the formula string of the record
+		 */
+		public String formula() {
+			return formula;
+		}
+
+		/**
+		 * @return the index of the character within the formula, at which parsing failed, or -1 if the record itself was
+		 *         malformed
+		 */
+		public int position() {
+			return position;
+		}
+
+		/**
+		 * @return short description of the problem
+		 */
+		public String reason() {
+			return reason;
+		}
+
+		public String toString() {
+			StringBuffer sb = new StringBuffer();
+			if (line >= 0) sb.append("line " + line + ", ");
+			if (id >= 0) sb.append("id " + id + ", ");
+			sb.append("'" + formula + "'");
+			if (position >= 0) sb.append(" at position " + position);
+			sb.append(": " + reason);
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * the outcome of a batch run: the parsed formulas and the errors
+	 */
+	public static class Result {
+		private TreeMap<Integer, Formula> formulas = new TreeMap<Integer, Formula>();
+		private Vector<ParseError> errors = new Vector<ParseError>();
+
+		/**
+		 * @return the mapping from record ids to the parsed formulas
+		 */
+		public TreeMap<Integer, Formula> formulas() {
+			return formulas;
+		}
+
+		/**
+		 * @return the records, which could not be parsed, in input order
+		 */
+		public Vector<ParseError> errors() {
+			return errors;
+		}
+
+		public String toString() {
+			return formulas.size() + " formulas parsed, " + errors.size() + " errors";
+		}
+	}
+
+	/**
+	 * a chunk of records, parsed by one task
+	 */
+	private class Chunk implements Callable<Chunk> {
+		private int[] ids = new int[chunkSize];
+		private int[] lines = new int[chunkSize];
+		private String[] strings = new String[chunkSize];
+		private Formula[] parsed;
+		private Vector<ParseError> errors = new Vector<ParseError>();
+		private int size = 0;
+
+		boolean isFull() {
+			return size == ids.length;
+		}
+
+		void add(int id, int line, String formula) {
+			ids[size] = id;
+			lines[size] = line;
+			strings[size++] = formula;
+		}
+
+		public Chunk call() {
+			parsed = new Formula[size];
+			for (int i = 0; i < size; i++) {
+				try {
+					parsed[i] = shared ? Formula.cache().get(strings[i], false) : new Formula(strings[i], false);
+				} catch (FormulaFormatException e) {
+					errors.add(new ParseError(ids[i], lines[i], strings[i], e.position(), e.reason()));
+				} catch (RuntimeException e) {
+					errors.add(new ParseError(ids[i], lines[i], strings[i], -1, e.toString()));
+				}
+			}
+			strings = null;
+			return this;
+		}
+	}
+
+	/**
+	 * @param threads the number of threads used for parsing, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param size the number of records handed to a thread at once
+	 */
+	public void setChunkSize(int size) {
+		if (size < 1) throw new IllegalArgumentException("chunk size has to be positive, found " + size);
+		chunkSize = size;
+	}
+
+	/**
+	 * @param shared if set (default), formulas are obtained from {@link Formula#valueOf(String)}, so identical formulas share
+	 *          one immutable instance. otherwise every record gets its own modifiable formula
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * parses all formulas of the given map
+	 *
+	 * @param formulas mapping from ids to formula strings
+	 * @return the parsed formulas and the errors
+	 * @throws InterruptedException
+	 */
+	public Result parse(Map<Integer, String> formulas) throws InterruptedException {
+		Iterator<Entry<Integer, String>> it = formulas.entrySet().iterator();
+		Run run = new Run();
+		try {
+			Chunk chunk = new Chunk();
+			while (it.hasNext()) {
+				Entry<Integer, String> entry = it.next();
+				chunk.add(entry.getKey(), -1, entry.getValue());
+				if (chunk.isFull()) {
+					run.submit(chunk);
+					chunk = new Chunk();
+				}
+			}
+			run.submit(chunk);
+			return run.finish();
+		} finally {
+			run.shutdown();
+		}
+	}
+
+	/**
+	 * parses tab separated records of the form <i>id</i> TAB <i>formula</i>. empty lines and lines starting with # are
+	 * skipped. records are read on the calling thread while the formulas are parsed in parallel.
+	 *
+	 * @param reader source of the records
+	 * @return the parsed formulas and the errors
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Result parse(Reader reader) throws IOException, InterruptedException {
+		BufferedReader in = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+		Run run = new Run();
+		try {
+			Chunk chunk = new Chunk();
+			int lineNumber = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.length() == 0 || line.charAt(0) == '#') continue;
+				int tab = line.indexOf('\t');
+				int id = -1;
+				try {
+					if (tab > 0) id = Integer.parseInt(line.substring(0, tab).trim());
+				} catch (NumberFormatException e) {
+					tab = -1;
+				}
+				if (tab <= 0) {
+					run.result.errors.add(new ParseError(-1, lineNumber, line, -1, "malformed record, expected id<TAB>formula"));
+					continue;
+				}
+				chunk.add(id, lineNumber, line.substring(tab + 1));
+				if (chunk.isFull()) {
+					run.submit(chunk);
+					chunk = new Chunk();
+				}
+			}
+			run.submit(chunk);
+			return run.finish();
+		} finally {
+			run.shutdown();
+		}
+	}
+
+	/**
+	 * parses tab separated records of the form <i>id</i> TAB <i>formula</i> from the given file
+	 *
+	 * @param file the file containing the records
+	 * @return the parsed formulas and the errors
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Result parse(File file) throws IOException, InterruptedException {
+		FileReader reader = new FileReader(file);
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * a single batch run: distributes chunks over the thread pool and collects their results in input order. the number of
+	 * pending chunks is limited, so reading large files does not fill the memory
+	 */
+	private class Run {
+		private ExecutorService pool = Executors.newFixedThreadPool(threads);
+		private LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+		private Result result = new Result();
+
+		void submit(Chunk chunk) throws InterruptedException {
+			if (chunk.size == 0) return;
+			pending.add(pool.submit(chunk));
+			while (pending.size() > 4 * threads)
+				collect(pending.removeFirst());
+		}
+
+		private void collect(Future<Chunk> future) throws InterruptedException {
+			Chunk chunk;
+			try {
+				chunk = future.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			for (int i = 0; i < chunk.size; i++) {
+				if (chunk.parsed[i] != null) result.formulas.put(chunk.ids[i], chunk.parsed[i]);
+			}
+			result.errors.addAll(chunk.errors);
+		}
+
+		Result finish() throws InterruptedException {
+			while (!pending.isEmpty())
+				collect(pending.removeFirst());
+			Collections.sort(result.errors, new Comparator<ParseError>() {
+				public int compare(ParseError e1, ParseError e2) {
+					return (e1.line < e2.line) ? -1 : ((e1.line == e2.line) ? 0 : 1);
+				}
+			});
+			return result;
+		}
+
+		void shutdown() {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+/**
+ * thread safe, size bounded cache of parsed formulas. identical formula strings are parsed only once and share one
+ * immutable {@link Formula} instance. the cache is split into segments with their own lock, each segment evicts its least
+ * recently used entries.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaCache {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final int capacity;
+
+	/**
+	 * a part of the cache with its own lock and lru order
+	 */
+	private class Segment extends LinkedHashMap<String, Formula> {
+		private static final long serialVersionUID = 1L;
+		private final int limit;
+
+		Segment(int limit) {
+			super(16, 0.75f, true);
+			this.limit = limit;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Formula> eldest) {
+			if (size() <= limit) return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * creates a new formula cache
+	 *
+	 * @param capacity the maximum number of formulas held by this cache
+	 */
+	public FormulaCache(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity has to be positive, found " + capacity);
+		this.capacity = capacity;
+		segments = new Segment[Math.min(SEGMENTS, capacity)];
+		int limit = capacity / segments.length;
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment(limit);
+	}
+
+	/**
+	 * returns the shared formula for the given string, parses it only if it is not cached
+	 *
+	 * @param formula the formula string
+	 * @return an immutable formula object
+	 * @throws DataFormatException if the string is no valid formula
+	 */
+	public Formula get(String formula) throws DataFormatException {
+		return get(formula, true);
+	}
+
+	/**
+	 * returns the shared formula for the given string, parses it only if it is not cached
+	 *
+	 * @param formula the formula string
+	 * @param reportErrors if set, malformed formulas and ignored upper limits of ranges are reported on System.err
+	 * @return an immutable formula object
+	 * @throws FormulaFormatException if the string is no valid formula
+	 */
+	Formula get(String formula, boolean reportErrors) throws FormulaFormatException {
+		Segment segment = segment(formula);
+		Formula result;
+		synchronized (segment) {
+			result = segment.get(formula);
+		}
+		if (result != null) {
+			hits.incrementAndGet();
+			return result;
+		}
+		misses.incrementAndGet();
+		Formula parsed = new Formula(formula, reportErrors);
+		parsed.makeImmutable();
+		synchronized (segment) {
+			result = segment.get(formula); // another thread may have parsed it meanwhile
+			if (result == null) {
+				segment.put(formula, parsed);
+				result = parsed;
+			}
+		}
+		return result;
+	}
+
+	private Segment segment(String formula) {
+		int h = formula.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * @return the maximum number of formulas held by this cache
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of formulas currently held by this cache
+	 */
+	public int size() {
+		int result = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				result += segment.size();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of requests, which required parsing
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of formulas removed from the cache to keep it within its capacity
+	 */
+	public long evictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the ratio of requests answered from the cache, 0 if there were no requests
+	 */
+	public double hitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0) ? 0.0 : (double) h / total;
+	}
+
+	/**
+	 * removes all formulas from the cache and resets the statistics
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	public String toString() {
+		return "FormulaCache (" + size() + "/" + capacity + " formulas, " + hits() + " hits, " + misses() + " misses, " + evictions() + " evictions)";
+	}
+}
@@ -0,0 +1,52 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * thrown, if a formula string does not match the formula grammar. in addition to the remaining input (which is the
+ * message), it tells where and why parsing failed
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaFormatException extends DataFormatException {
+
+	private static final long serialVersionUID = -2461954271542374905L;
+	private String formula;
+	private int position;
+	private String reason;
+
+	/**
+	 * @param formula the formula string, which could not be parsed
+	 * @param position the index of the character, at which parsing failed
+	 * @param reason short description of the problem
+	 * @param message the exception message
+	 */
+	public FormulaFormatException(String formula, int position, String reason, String message) {
+		super(message);
+		this.formula = formula;
+		this.position = position;
+		this.reason = reason;
+	}
+
+	/**
+	 * @return the formula string, which could not be parsed
+	 */
+	public String formula() {
+		return formula;
+	}
+
+	/**
+	 * @return the index of the character within the formula, at which parsing failed
+	 */
+	public int position() {
+		return position;
+	}
+
+	/**
+	 * @return short description of the problem
+	 */
+	public String reason() {
+		return reason;
+	}
+}
@@ -0,0 +1,163 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * hash index over the formulas of substances. substances with identical element counts share one entry, so questions
+ * like "which substances have formula F + G" or "which substance pairs differ by exactly one H2O" are answered by hash
+ * lookups instead of pairwise comparison of all formulas.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class FormulaIndex {
+
+	private static final int[] NONE = new int[0];
+
+	private HashMap<CompactFormula, Integer> positions = new HashMap<CompactFormula, Integer>(); // formula => index in the arrays below
+	private CompactFormula[] formulas;
+	private int[][] ids; // ids[i] are the ids of the substances with formula formulas[i]
+
+	/**
+	 * creates an index over the formulas of all substances registered so far
+	 */
+	public FormulaIndex() {
+		this(Component.all());
+	}
+
+	/**
+	 * creates an index over the given components. components which are no substances and substances without formula are
+	 * ignored
+	 *
+	 * @param components the substances to be indexed
+	 */
+	public FormulaIndex(Collection<? extends Component> components) {
+		int[] counts = new int[16];
+		CompactFormula[] distinct = new CompactFormula[16];
+		int[] positionOf = new int[components.size()]; // position of the formula of the n-th component, -1 if not indexed
+		int n = 0;
+		for (Component component : components) { // first pass: count substances per formula
+			CompactFormula formula = formulaOf(component);
+			if (formula == null) {
+				positionOf[n++] = -1;
+				continue;
+			}
+			Integer position = positions.get(formula);
+			if (position == null) {
+				position = positions.size();
+				if (position == counts.length) {
+					int[] c = new int[2 * position];
+					CompactFormula[] d = new CompactFormula[2 * position];
+					System.arraycopy(counts, 0, c, 0, position);
+					System.arraycopy(distinct, 0, d, 0, position);
+					counts = c;
+					distinct = d;
+				}
+				positions.put(formula, position);
+				distinct[position] = formula;
+			}
+			counts[position]++;
+			positionOf[n++] = position;
+		}
+		int size = positions.size();
+		formulas = new CompactFormula[size];
+		System.arraycopy(distinct, 0, formulas, 0, size);
+		ids = new int[size][];
+		for (int i = 0; i < size; i++) {
+			ids[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+		n = 0;
+		for (Component component : components) { // second pass: fill in the substance ids
+			int position = positionOf[n++];
+			if (position >= 0) ids[position][counts[position]++] = component.id();
+		}
+	}
+
+	private static CompactFormula formulaOf(Component component) {
+		if (!(component instanceof Substance)) return null;
+		Formula formula = ((Substance) component).formula();
+		if (formula == null) return null;
+		return formula.compact();
+	}
+
+	/**
+	 * @return the number of distinct formulas in this index
+	 */
+	public int size() {
+		return formulas.length;
+	}
+
+	/**
+	 * @param formula the formula of interest
+	 * @return the ids of all substances with exactly this formula. the array must not be modified
+	 */
+	public int[] find(CompactFormula formula) {
+		Integer position = positions.get(formula);
+		return (position == null) ? NONE : ids[position];
+	}
+
+	/**
+	 * @param formula the formula of interest
+	 * @return the ids of all substances with exactly this formula. the array must not be modified
+	 */
+	public int[] find(Formula formula) {
+		return find(formula.compact());
+	}
+
+	/**
+	 * @param formula a formula
+	 * @param group the group to be added to the formula
+	 * @return the ids of all substances with the formula formula + group. the array must not be modified
+	 */
+	public int[] find(CompactFormula formula, CompactFormula group) {
+		return find(formula.add(group));
+	}
+
+	/**
+	 * finds all pairs of substances (a, b), for which formula(b) = formula(a) + group
+	 *
+	 * @param group the difference of interest, e.g. H2O
+	 * @return two arrays of equal length: result[0][k] and result[1][k] form the k-th pair, where the substance result[1][k]
+	 *         contains the additional group
+	 */
+	public int[][] pairsDifferingBy(CompactFormula group) {
+		int[] first = new int[16];
+		int[] second = new int[16];
+		int size = 0;
+		for (int i = 0; i < formulas.length; i++) {
+			Integer target = positions.get(formulas[i].add(group));
+			if (target == null) continue;
+			for (int a : ids[i]) {
+				for (int b : ids[target]) {
+					if (size == first.length) {
+						int[] f = new int[2 * size];
+						int[] s = new int[2 * size];
+						System.arraycopy(first, 0, f, 0, size);
+						System.arraycopy(second, 0, s, 0, size);
+						first = f;
+						second = s;
+					}
+					first[size] = a;
+					second[size++] = b;
+				}
+			}
+		}
+		int[][] result = new int[2][size];
+		System.arraycopy(first, 0, result[0], 0, size);
+		System.arraycopy(second, 0, result[1], 0, size);
+		return result;
+	}
+
+	/**
+	 * finds all pairs of substances (a, b), for which formula(b) = formula(a) + group
+	 *
+	 * @param group the difference of interest, e.g. H2O
+	 * @return two arrays of equal length: result[0][k] and result[1][k] form the k-th pair, where the substance result[1][k]
+	 *         contains the additional group
+	 */
+	public int[][] pairsDifferingBy(Formula group) {
+		return pairsDifferingBy(group.compact());
+	}
+}
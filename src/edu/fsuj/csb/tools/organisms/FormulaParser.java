@@ -0,0 +1,311 @@
+package edu.fsuj.csb.tools.organisms;
+
+/**
+ * single pass parser for sum formulas. reads the formula string by index and collects the atom counts in primitive arrays,
+ * so that parsing does not allocate anything per character. accepts the grammar described in doc/formula definition
+ * (groups, brackets, separators, variables, ranges and charges).
+ *
+ * instances are not thread safe, use {@link #get()} to obtain the parser of the current thread.
+ *
+ * @author Stephan Richter
+ *
+ */
+class FormulaParser {
+
+	private static final ThreadLocal<FormulaParser> parsers = new ThreadLocal<FormulaParser>() {
+		protected FormulaParser initialValue() {
+			return new FormulaParser();
+		}
+	};
+	private static final String[] symbolCache = new String[26 * 27];
+	private static final long[] powersOfTen = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L };
+	private static final long EXACT_LIMIT = 1L << 53; // integers below this limit are exactly representable as double
+
+	private CharSequence input;
+	private int pos;
+	private int end;
+	private String[] symbols = new String[16];
+	private double[] counts = new double[16];
+	private int size;
+	private double ignoredLimit; // upper limit of the last range dropped by the last parse, NaN if there was none
+
+	/**
+	 * @return the parser instance of the current thread
+	 */
+	static FormulaParser get() {
+		return parsers.get();
+	}
+
+	/**
+	 * parses the given formula. afterwards the atom counts can be read using {@link #size()}, {@link #symbol(int)} and
+	 * {@link #count(int)}
+	 *
+	 * @param formula the formula to be parsed. a trailing dot is ignored
+	 * @throws FormulaFormatException if the formula does not match the formula grammar
+	 */
+	void parse(CharSequence formula) throws FormulaFormatException {
+		input = formula;
+		pos = 0;
+		end = formula.length();
+		if (end > 0 && formula.charAt(end - 1) == '.') end--; // ignore trailing dot
+		size = 0;
+		ignoredLimit = Double.NaN;
+		try {
+			parseFormula();
+		} finally {
+			input = null;
+		}
+	}
+
+	/**
+	 * ranges like "2-4" are parsed, but only their lower limit is used. the parser itself does not report this, so bulk
+	 * parsing stays silent; callers may do so using this method
+	 *
+	 * @return the upper limit of the last range ignored by the last parse, NaN if the formula contained no range
+	 */
+	double ignoredLimit() {
+		return ignoredLimit;
+	}
+
+	/**
+	 * @return the number of distinct atoms found by the last parse
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param index the index of the atom, has to be smaller than size()
+	 * @return the symbol of the atom with the given index
+	 */
+	String symbol(int index) {
+		return symbols[index];
+	}
+
+	/**
+	 * @param index the index of the atom, has to be smaller than size()
+	 * @return the stoichiometry of the atom with the given index
+	 */
+	double count(int index) {
+		return counts[index];
+	}
+
+	private void parseFormula() throws FormulaFormatException {
+		parseMolecule();
+		while (pos < end) {
+			parseSeparator();
+			parseMolecule();
+		}
+		unite(0);
+	}
+
+	private void parseSeparator() {
+		while (pos < end && input.charAt(pos) == ' ')
+			pos++;
+		if (pos < end && input.charAt(pos) == '.') pos++;
+		while (pos < end && input.charAt(pos) == ' ')
+			pos++;
+	}
+
+	private void parseMolecule() throws FormulaFormatException {
+		double variable = parseCount();
+		int start = size;
+		if (!parseGroup()) dataFormatException("expected element or group");
+		while (parseGroup()) {}
+		unite(start);
+		if (!Double.isNaN(variable)) multiply(start, variable);
+	}
+
+	private boolean parseGroup() throws FormulaFormatException {
+		if (pos >= end) return false;
+		int start = size;
+		char c = input.charAt(pos);
+		if (c == '(' || c == '[') {
+			pos++;
+			parseMolecule();
+			if (pos >= end) dataFormatException("missing closing bracket");
+			for (c = input.charAt(pos); c != ')' && c != ']'; c = input.charAt(pos)) {
+				if (c == ' ' || c == '.') parseSeparator();
+				parseMolecule();
+				if (pos >= end) dataFormatException("missing closing bracket");
+			}
+			pos++;
+			unite(start);
+			double count = parseCount();
+			if (!Double.isNaN(count)) multiply(start, count);
+			return true;
+		}
+		if (!parseStoich()) return false;
+		while (pos < end && parseStoich()) {}
+		unite(start);
+		return true;
+	}
+
+	/**
+	 * @return the parsed count or NaN, if there is none
+	 */
+	private double parseCount() throws FormulaFormatException {
+		double result = Double.NaN;
+		if (pos < end) {
+			if (Character.isDigit(input.charAt(pos))) result = parseDouble();
+			if (pos < end && input.charAt(pos) == '-') {
+				pos++;
+				double upperLimit = parseDouble();
+				if (Double.isNaN(upperLimit)) dataFormatException("missing upper limit of range");
+				ignoredLimit = upperLimit;
+			}
+			if (pos < end && Character.isLowerCase(input.charAt(pos))) {
+				double variable = parseVariable();
+				result = Double.isNaN(result) ? variable : variable * result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * parses a decimal number. the fractional digits are read as integer, so 2.05 evaluates to 2.5 - this is kept for
+	 * compatibility with the formulas stored so far.
+	 *
+	 * @return the parsed number or NaN, if there is none
+	 */
+	private double parseDouble() throws FormulaFormatException {
+		long prefix = parseInteger();
+		if (prefix < 0) return Double.NaN;
+		if (pos + 1 < end && input.charAt(pos) == '.' && Character.isDigit(input.charAt(pos + 1))) {
+			pos++;
+			long fraction = parseInteger();
+			int digits = 1;
+			while (digits < powersOfTen.length && fraction >= powersOfTen[digits])
+				digits++;
+			if (prefix < EXACT_LIMIT / powersOfTen[digits]) return (double) (prefix * powersOfTen[digits] + fraction) / powersOfTen[digits];
+			// rare case: numbers too large to be calculated exactly
+			return Double.parseDouble(prefix + "." + fraction + "0");
+		}
+		return prefix;
+	}
+
+	/**
+	 * @return the parsed integer or -1, if there is none
+	 */
+	private long parseInteger() throws FormulaFormatException {
+		if (pos >= end || !Character.isDigit(input.charAt(pos))) return -1;
+		long result = 0;
+		while (pos < end && Character.isDigit(input.charAt(pos))) {
+			result = result * 10 + Character.digit(input.charAt(pos++), 10);
+			if (result > Integer.MAX_VALUE) dataFormatException("number too large");
+		}
+		return result;
+	}
+
+	private boolean parseStoich() throws FormulaFormatException {
+		if (pos >= end || !Character.isUpperCase(input.charAt(pos))) return false;
+		String atom = parseAtom();
+		double number = parseDouble();
+		parseExponent();
+		append(atom, Double.isNaN(number) ? 1.0 : number);
+		return true;
+	}
+
+	private void parseExponent() throws FormulaFormatException {
+		if (pos >= end || input.charAt(pos) != '^') return;
+		pos++;
+		parseInteger();
+		if (pos >= end || (input.charAt(pos) != '+' && input.charAt(pos) != '-')) dataFormatException("expected sign of charge");
+		pos++;
+	}
+
+	private String parseAtom() throws FormulaFormatException {
+		int start = pos;
+		if (!Character.isUpperCase(input.charAt(pos))) dataFormatException("expected element");
+		pos++;
+		if (pos < end && Character.isLowerCase(input.charAt(pos))) pos++;
+		boolean combined = false;
+		while (pos < end && input.charAt(pos) == ',') {
+			combined = true;
+			pos++;
+			if (pos >= end || !Character.isUpperCase(input.charAt(pos))) dataFormatException("expected element after ','");
+			pos++;
+			if (pos < end && Character.isLowerCase(input.charAt(pos))) pos++;
+		}
+		if (combined) return input.subSequence(start, pos).toString();
+		return symbol(start, pos - start);
+	}
+
+	/**
+	 * returns the symbol string for a one or two letter element symbol, reusing cached instances for ascii letters
+	 */
+	private String symbol(int start, int length) {
+		char upper = input.charAt(start);
+		char lower = (length > 1) ? input.charAt(start + 1) : 'a' - 1;
+		if (upper < 'A' || upper > 'Z' || lower < 'a' - 1 || lower > 'z') return input.subSequence(start, start + length).toString();
+		int index = (upper - 'A') * 27 + (lower - 'a' + 1);
+		String result = symbolCache[index];
+		if (result == null) {
+			result = input.subSequence(start, start + length).toString();
+			symbolCache[index] = result;
+		}
+		return result;
+	}
+
+	private double parseVariable() throws FormulaFormatException {
+		double result = Formula.VARIABLE_REPLACEMENT;
+		if (!Character.isLowerCase(input.charAt(pos))) dataFormatException("expected variable");
+		while (pos < end && Character.isLowerCase(input.charAt(pos)))
+			pos++;
+		while (pos < end && Character.isDigit(input.charAt(pos)))
+			pos++; // index of the variable, e.g. n2
+		if (pos < end && (input.charAt(pos) == '+' || input.charAt(pos) == '-')) {
+			char sign = input.charAt(pos++);
+			double term = parseCount();
+			if (Double.isNaN(term)) dataFormatException("missing term after sign");
+			result = (sign == '+') ? result + term : result - term;
+		}
+		return result;
+	}
+
+	private void append(String symbol, double count) {
+		if (size == symbols.length) {
+			String[] newSymbols = new String[2 * size];
+			double[] newCounts = new double[2 * size];
+			System.arraycopy(symbols, 0, newSymbols, 0, size);
+			System.arraycopy(counts, 0, newCounts, 0, size);
+			symbols = newSymbols;
+			counts = newCounts;
+		}
+		symbols[size] = symbol;
+		counts[size++] = count;
+	}
+
+	/**
+	 * sums up the counts of equal atoms collected since start, in order of appearance
+	 *
+	 * @param start the index of the first entry belonging to the current term
+	 */
+	private void unite(int start) {
+		int write = start;
+		for (int read = start; read < size; read++) {
+			String symbol = symbols[read];
+			int i = start;
+			while (i < write && !symbols[i].equals(symbol))
+				i++;
+			if (i < write) {
+				counts[i] = counts[i] + counts[read];
+			} else {
+				symbols[write] = symbol;
+				counts[write++] = counts[read];
+			}
+		}
+		for (int i = write; i < size; i++)
+			symbols[i] = null;
+		size = write;
+	}
+
+	private void multiply(int start, double factor) {
+		for (int i = start; i < size; i++)
+			counts[i] = factor * counts[i];
+	}
+
+	private void dataFormatException(String reason) throws FormulaFormatException {
+		throw new FormulaFormatException(input.toString(), Math.min(pos, end), reason, " " + input.subSequence(Math.min(pos, end), end) + " ");
+	}
+}
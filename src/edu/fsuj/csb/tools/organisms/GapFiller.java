@@ -0,0 +1,278 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * gap filling: searches a small set of reactions from a universal reaction set (e.g. the whole database), which have to be
+ * added to a compartment, so that given target substances become producible from given seeds.
+ *
+ * the search works on a combined network of the compartment's reactions and the universal reactions. first, a feasible
+ * set of additional reactions is obtained by tracing the targets back through the expansion generations of the combined
+ * network, starting from the scope of the compartment itself. this set is then reduced by repeatedly dropping reactions,
+ * which are not needed; the candidates for dropping are evaluated in parallel.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class GapFiller {
+
+	private final ReactionNetwork network; // the compartment's reactions together with the universal reactions
+	private final boolean[] candidate; // candidate[d] is set, if directed reaction d does not belong to the compartment
+	private final int[] first; // first[d] is the first directed reaction of the reaction underlying d (directions of a reaction are adjacent)
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long timeLimit = Long.MAX_VALUE; // milliseconds
+	private int sizeLimit = 0;
+
+	/**
+	 * the outcome of a gap filling run
+	 */
+	public static class Result {
+		private TreeSet<Integer> reactions = new TreeSet<Integer>();
+		private TreeSet<Integer> unreachable = new TreeSet<Integer>();
+		private boolean minimal = true;
+
+		/**
+		 * @return the ids of the reactions to be added
+		 */
+		public TreeSet<Integer> reactions() {
+			return reactions;
+		}
+
+		/**
+		 * @return the targets, which can not be produced even with all universal reactions. they are ignored by the gap filling
+		 */
+		public TreeSet<Integer> unreachable() {
+			return unreachable;
+		}
+
+		/**
+		 * @return true, if no single reaction can be dropped from the result. false, if the reduction has been stopped by the
+		 *         time or size limit
+		 */
+		public boolean isMinimal() {
+			return minimal;
+		}
+
+		public String toString() {
+			return "add " + reactions + (minimal ? "" : " (not minimal)") + (unreachable.isEmpty() ? "" : ", unreachable: " + unreachable);
+		}
+	}
+
+	/**
+	 * @param compartment the compartment to be completed
+	 * @param universe the reactions, which may be added
+	 * @param universeCompartment the compartment determining the directions of the universal reactions. if null, the
+	 *          universal reactions are taken as reversible, since they have no direction in the compartment to be completed
+	 */
+	public GapFiller(Compartment compartment, ReactionSet universe, Compartment universeCompartment) {
+		network = new ReactionNetwork(new ReactionSet[] { compartment.reactions(), universe }, new Compartment[] { compartment, universeCompartment });
+		candidate = new boolean[network.directionCount()];
+		first = new int[network.directionCount()];
+		for (int d = 0; d < candidate.length; d++) {
+			candidate[d] = !compartment.reactions().contains(network.reaction(d));
+			first[d] = (d > 0 && network.reaction(d - 1) == network.reaction(d)) ? first[d - 1] : d;
+		}
+	}
+
+	/**
+	 * @param threads the number of threads used, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param milliseconds the reduction of the result is stopped after this time
+	 */
+	public void setTimeLimit(long milliseconds) {
+		timeLimit = milliseconds;
+	}
+
+	/**
+	 * @param size the reduction of the result is stopped, as soon as it contains no more than this number of reactions
+	 */
+	public void setSizeLimit(int size) {
+		sizeLimit = size;
+	}
+
+	/**
+	 * searches a small set of universal reactions, which make the targets producible from the seeds
+	 *
+	 * @param substanceIds the seed substances
+	 * @param targetIds the substances, which shall become producible
+	 * @return the reactions to be added and the targets, which are not reachable at all
+	 * @throws InterruptedException
+	 */
+	public Result fill(Collection<Integer> substanceIds, Collection<Integer> targetIds) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		long deadline = (timeLimit > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + timeLimit;
+		Result result = new Result();
+		int substances = network.substanceCount(), directions = network.directionCount();
+		boolean[] seeds = new boolean[substances];
+		for (int s : network.indicesOf(substanceIds))
+			seeds[s] = true;
+		TreeSet<Integer> seedSet = new TreeSet<Integer>(substanceIds);
+
+		// scope of the compartment itself
+		boolean[] own = seeds.clone();
+		network.closure(own, new int[substances], new int[directions], candidate);
+
+		// expansion of the compartment's scope using all reactions
+		boolean[] available = own.clone();
+		int[] substanceGeneration = new int[substances];
+		int[] directionGeneration = new int[directions];
+		network.closure(available, new int[substances], new int[directions], null, substanceGeneration, directionGeneration);
+
+		int[] targets = new int[targetIds.size()];
+		int targetCount = 0;
+		for (Integer t : targetIds) {
+			if (seedSet.contains(t)) continue;
+			int index = network.indexOf(t);
+			if (index < 0 || !available[index]) {
+				result.unreachable.add(t);
+			} else if (!own[index]) targets[targetCount++] = index;
+		}
+		targets = Arrays.copyOf(targets, targetCount);
+		if (targetCount == 0) return result;
+
+		// trace the targets back to the compartment's scope
+		int[] producer = firstProducers(directionGeneration, substanceGeneration);
+		boolean[] used = new boolean[directions];
+		boolean[] needed = new boolean[substances];
+		int[] queue = new int[substances];
+		int head = 0, tail = 0;
+		for (int t : targets) {
+			needed[t] = true;
+			queue[tail++] = t;
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			int d = producer[s];
+			used[first[d]] = true;
+			for (int i = network.inputStart[d]; i < network.inputStart[d + 1]; i++) {
+				int input = network.inputs[i];
+				if (!own[input] && !needed[input]) {
+					needed[input] = true;
+					queue[tail++] = input;
+				}
+			}
+		}
+		int[] solution = new int[directions]; // the universal reactions to be added, given by their first directions
+		int size = 0;
+		for (int d = 0; d < directions; d++)
+			if (used[d] && candidate[d]) solution[size++] = d;
+		solution = Arrays.copyOf(solution, size);
+
+		// drop reactions, which are not needed
+		solution = reduce(solution, seeds, targets, deadline, result);
+		for (int d : solution)
+			result.reactions.add(network.reaction(d));
+		return result;
+	}
+
+	/**
+	 * determines for every substance a directed reaction, which produces it in its generation. reactions of the compartment
+	 * are preferred over universal reactions
+	 *
+	 * @return the producing directed reaction for every substance, -1 for substances without producer
+	 */
+	private int[] firstProducers(int[] directionGeneration, int[] substanceGeneration) {
+		int[] producer = new int[network.substanceCount()];
+		Arrays.fill(producer, -1);
+		for (int d = 0; d < network.directionCount(); d++) {
+			int generation = directionGeneration[d];
+			if (generation <= 0) continue;
+			for (int i = network.outputStart[d]; i < network.outputStart[d + 1]; i++) {
+				int o = network.outputs[i];
+				if (substanceGeneration[o] != generation) continue; // d is not the first producer of o
+				if (producer[o] < 0 || (candidate[producer[o]] && !candidate[d])) producer[o] = d;
+			}
+		}
+		return producer;
+	}
+
+	/**
+	 * repeatedly drops reactions from the solution, which are not needed to produce the targets. in every round, all
+	 * reactions of the solution are tested in parallel; those, which are dispensable on their own, are then dropped one
+	 * after another, as long as the targets stay producible
+	 */
+	private int[] reduce(int[] solution, final boolean[] seeds, final int[] targets, long deadline, Result result) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			while (solution.length > 1) {
+				if (solution.length <= sizeLimit || System.currentTimeMillis() > deadline) {
+					result.minimal = false;
+					break;
+				}
+				final int[] current = solution;
+				LinkedList<Future<Boolean>> pending = new LinkedList<Future<Boolean>>();
+				for (int i = 0; i < current.length; i++) {
+					final int dropped = i;
+					pending.add(pool.submit(new Callable<Boolean>() {
+						public Boolean call() {
+							return producesTargets(current, dropped, seeds, targets);
+						}
+					}));
+				}
+				boolean[] dispensable = new boolean[current.length];
+				int i = 0;
+				for (Future<Boolean> future : pending) {
+					try {
+						dispensable[i++] = future.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+				int[] reduced = current.clone();
+				int size = current.length;
+				boolean first = true;
+				for (i = current.length - 1; i >= 0; i--) { // drop the dispensable reactions of late generations first
+					if (!dispensable[i]) continue;
+					int[] trial = new int[size - 1];
+					int k = 0;
+					for (int j = 0; j < size; j++)
+						if (reduced[j] != current[i]) trial[k++] = reduced[j];
+					if (first || producesTargets(trial, -1, seeds, targets)) {
+						reduced = trial;
+						size--;
+						first = false;
+					}
+				}
+				if (size == current.length) break; // nothing dispensable left
+				solution = Arrays.copyOf(reduced, size);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return solution;
+	}
+
+	/**
+	 * @param solution the universal reactions (given by their first directions) enabled in addition to the compartment's
+	 *          reactions
+	 * @param dropped index of a reaction of the solution to be left out, -1 to use the whole solution
+	 * @return true, if all targets are producible from the seeds
+	 */
+	private boolean producesTargets(int[] solution, int dropped, boolean[] seeds, int[] targets) {
+		boolean[] blocked = candidate.clone();
+		for (int i = 0; i < solution.length; i++) {
+			if (i == dropped) continue;
+			for (int d = solution[i]; d < blocked.length && first[d] == solution[i]; d++)
+				blocked[d] = false;
+		}
+		boolean[] available = seeds.clone();
+		network.closure(available, new int[available.length], new int[blocked.length], blocked);
+		for (int t : targets)
+			if (!available[t]) return false;
+		return true;
+	}
+}
@@ -0,0 +1,699 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * compressed set of (database) ids, organized like a roaring bitmap: the ids are grouped by their upper 16 bits, and the
+ * lower 16 bits of every group are held in a container, which is either a sorted char array (for up to 4096 entries) or a
+ * bitmap of 65536 bits. this needs a few bytes per id instead of the ~40 bytes of a TreeSet node, and allows for fast
+ * unions, intersections and differences, which work container by container. iteration is in ascending order.
+ *
+ * read-only views (see {@link #view()}) share the data of the set they belong to, so they reflect later changes of that
+ * set without copying it.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class IdSet extends AbstractSet<Integer> implements Serializable {
+
+	private static final long serialVersionUID = 1863305472147710934L;
+	private static final int ARRAY_LIMIT = 4096; // containers with more entries are held as bitmaps
+	private static final int WORDS = 1024; // number of longs in a bitmap container
+
+	/**
+	 * the containers of a set. views share this object with the set they belong to
+	 */
+	private static class Storage implements Serializable {
+		private static final long serialVersionUID = -3127455620893145524L;
+		int[] keys = new int[4]; // upper 16 bits of the ids, sorted
+		Object[] containers = new Object[4]; // char[] or long[] holding the lower 16 bits
+		int[] cardinalities = new int[4]; // number of ids in each container
+		int count; // number of containers
+		int size; // number of ids
+
+		/**
+		 * @return the index of the container for the given key, or (-(insertion point) - 1)
+		 */
+		int find(int key) {
+			return Arrays.binarySearch(keys, 0, count, key);
+		}
+
+		void insert(int k, int key, Object container, int cardinality) {
+			if (count == keys.length) {
+				int capacity = 2 * count;
+				keys = Arrays.copyOf(keys, capacity);
+				containers = Arrays.copyOf(containers, capacity);
+				cardinalities = Arrays.copyOf(cardinalities, capacity);
+			}
+			System.arraycopy(keys, k, keys, k + 1, count - k);
+			System.arraycopy(containers, k, containers, k + 1, count - k);
+			System.arraycopy(cardinalities, k, cardinalities, k + 1, count - k);
+			keys[k] = key;
+			containers[k] = container;
+			cardinalities[k] = cardinality;
+			count++;
+		}
+
+		void delete(int k) {
+			count--;
+			System.arraycopy(keys, k + 1, keys, k, count - k);
+			System.arraycopy(containers, k + 1, containers, k, count - k);
+			System.arraycopy(cardinalities, k + 1, cardinalities, k, count - k);
+			containers[count] = null;
+		}
+
+		/**
+		 * appends a container, which has to belong behind all present containers. empty containers (null) are skipped
+		 */
+		void append(int key, Object container) {
+			if (container == null) return;
+			int cardinality = cardinality(container);
+			insert(count, key, container, cardinality);
+			size += cardinality;
+		}
+	}
+
+	private Storage storage;
+	private final boolean readOnly;
+
+	/**
+	 * creates an empty set
+	 */
+	public IdSet() {
+		this(new Storage(), false);
+	}
+
+	/**
+	 * creates a set holding the given ids
+	 *
+	 * @param ids the initial content of the set
+	 */
+	public IdSet(Collection<Integer> ids) {
+		this();
+		addAll(ids);
+	}
+
+	/**
+	 * creates a set holding the given ids
+	 *
+	 * @param ids the initial content of the set, in any order
+	 */
+	public IdSet(int[] ids) {
+		this();
+		for (int id : ids)
+			add(id);
+	}
+
+	private IdSet(Storage storage, boolean readOnly) {
+		this.storage = storage;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * @return a read-only view of this set, which reflects all later changes of this set
+	 */
+	public IdSet view() {
+		return readOnly ? this : new IdSet(storage, true);
+	}
+
+	/**
+	 * @return true, if this is a read-only view
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	private void checkWritable() {
+		if (readOnly) throw new UnsupportedOperationException("read-only view of an id set can not be modified");
+	}
+
+	public int size() {
+		return storage.size;
+	}
+
+	public boolean isEmpty() {
+		return storage.size == 0;
+	}
+
+	/**
+	 * @param id an id
+	 * @return true, if the id belongs to this set
+	 */
+	public boolean contains(int id) {
+		Storage s = storage;
+		int k = s.find(id >> 16);
+		if (k < 0) return false;
+		char low = (char) id;
+		Object container = s.containers[k];
+		if (container instanceof long[]) return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+		return Arrays.binarySearch((char[]) container, 0, s.cardinalities[k], low) >= 0;
+	}
+
+	public boolean contains(Object o) {
+		return (o instanceof Integer) && contains(((Integer) o).intValue());
+	}
+
+	/**
+	 * @param id the id to be added
+	 * @return true, if the id has not been in the set before
+	 */
+	public boolean add(int id) {
+		checkWritable();
+		Storage s = storage;
+		int key = id >> 16;
+		char low = (char) id;
+		int k = s.find(key);
+		if (k < 0) {
+			s.insert(-k - 1, key, new char[] { low }, 1);
+			s.size++;
+			return true;
+		}
+		Object container = s.containers[k];
+		if (container instanceof long[]) {
+			long[] bits = (long[]) container;
+			long mask = 1L << low;
+			if ((bits[low >>> 6] & mask) != 0) return false;
+			bits[low >>> 6] |= mask;
+		} else {
+			char[] array = (char[]) container;
+			int n = s.cardinalities[k];
+			int i = Arrays.binarySearch(array, 0, n, low);
+			if (i >= 0) return false;
+			i = -i - 1;
+			if (n == ARRAY_LIMIT) {
+				long[] bits = toBitmap(array, n);
+				bits[low >>> 6] |= 1L << low;
+				s.containers[k] = bits;
+			} else {
+				if (n == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, 2 * n));
+				System.arraycopy(array, i, array, i + 1, n - i);
+				array[i] = low;
+				s.containers[k] = array;
+			}
+		}
+		s.cardinalities[k]++;
+		s.size++;
+		return true;
+	}
+
+	public boolean add(Integer id) {
+		return add(id.intValue());
+	}
+
+	/**
+	 * @param id the id to be removed
+	 * @return true, if the id has been in the set
+	 */
+	public boolean remove(int id) {
+		checkWritable();
+		Storage s = storage;
+		int k = s.find(id >> 16);
+		if (k < 0) return false;
+		char low = (char) id;
+		Object container = s.containers[k];
+		int n = s.cardinalities[k];
+		if (container instanceof long[]) {
+			long[] bits = (long[]) container;
+			long mask = 1L << low;
+			if ((bits[low >>> 6] & mask) == 0) return false;
+			bits[low >>> 6] &= ~mask;
+			if (n - 1 == ARRAY_LIMIT) s.containers[k] = toArray(bits, n - 1);
+		} else {
+			char[] array = (char[]) container;
+			int i = Arrays.binarySearch(array, 0, n, low);
+			if (i < 0) return false;
+			System.arraycopy(array, i + 1, array, i, n - i - 1);
+		}
+		s.size--;
+		if (--s.cardinalities[k] == 0) s.delete(k);
+		return true;
+	}
+
+	public boolean remove(Object o) {
+		return (o instanceof Integer) && remove(((Integer) o).intValue());
+	}
+
+	public void clear() {
+		checkWritable();
+		Storage s = storage;
+		Arrays.fill(s.containers, null);
+		s.count = 0;
+		s.size = 0;
+	}
+
+	public boolean addAll(Collection<? extends Integer> ids) {
+		checkWritable();
+		if (!(ids instanceof IdSet)) return super.addAll(ids);
+		int sizeBefore = storage.size;
+		replace(combine(storage, ((IdSet) ids).storage, UNION, true));
+		return storage.size != sizeBefore;
+	}
+
+	public boolean retainAll(Collection<?> ids) {
+		checkWritable();
+		if (!(ids instanceof IdSet)) return super.retainAll(ids);
+		int sizeBefore = storage.size;
+		replace(combine(storage, ((IdSet) ids).storage, INTERSECTION, true));
+		return storage.size != sizeBefore;
+	}
+
+	public boolean removeAll(Collection<?> ids) {
+		checkWritable();
+		if (!(ids instanceof IdSet)) {
+			boolean changed = false;
+			for (Object id : ids)
+				changed |= remove(id);
+			return changed;
+		}
+		int sizeBefore = storage.size;
+		replace(combine(storage, ((IdSet) ids).storage, DIFFERENCE, true));
+		return storage.size != sizeBefore;
+	}
+
+	public boolean containsAll(Collection<?> ids) {
+		if (ids instanceof IdSet) return intersectionSize((IdSet) ids) == ids.size();
+		return super.containsAll(ids);
+	}
+
+	/**
+	 * takes over the containers of the given storage, keeping the storage object itself, which is shared with the views
+	 */
+	private void replace(Storage result) {
+		Storage s = storage;
+		s.keys = result.keys;
+		s.containers = result.containers;
+		s.cardinalities = result.cardinalities;
+		s.count = result.count;
+		s.size = result.size;
+	}
+
+	/**
+	 * @param a a set
+	 * @param b another set
+	 * @return a new set holding the ids of both sets
+	 */
+	public static IdSet union(IdSet a, IdSet b) {
+		return new IdSet(combine(a.storage, b.storage, UNION, false), false);
+	}
+
+	/**
+	 * @param a a set
+	 * @param b another set
+	 * @return a new set holding the ids, which belong to both sets
+	 */
+	public static IdSet intersection(IdSet a, IdSet b) {
+		return new IdSet(combine(a.storage, b.storage, INTERSECTION, false), false);
+	}
+
+	/**
+	 * @param a a set
+	 * @param b another set
+	 * @return a new set holding the ids of a, which do not belong to b
+	 */
+	public static IdSet difference(IdSet a, IdSet b) {
+		return new IdSet(combine(a.storage, b.storage, DIFFERENCE, false), false);
+	}
+
+	/**
+	 * @param other another set
+	 * @return the number of ids belonging to both sets. nothing is allocated for this
+	 */
+	public int intersectionSize(IdSet other) {
+		Storage a = storage, b = other.storage;
+		int result = 0;
+		for (int i = 0, j = 0; i < a.count && j < b.count;) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result += intersectionSize(a.containers[i], a.cardinalities[i], b.containers[j], b.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public IdSet clone() {
+		Storage s = storage, copy = new Storage();
+		copy.keys = Arrays.copyOf(s.keys, Math.max(4, s.count));
+		copy.cardinalities = Arrays.copyOf(s.cardinalities, copy.keys.length);
+		copy.containers = new Object[copy.keys.length];
+		for (int k = 0; k < s.count; k++)
+			copy.containers[k] = copy(s.containers[k], s.cardinalities[k]);
+		copy.count = s.count;
+		copy.size = s.size;
+		return new IdSet(copy, false);
+	}
+
+	/**
+	 * @return the ids of this set in ascending order
+	 */
+	public int[] toIntArray() {
+		int[] result = new int[storage.size];
+		int i = 0;
+		for (IdIterator it = new IdIterator(); it.hasNext();)
+			result[i++] = it.nextId();
+		return result;
+	}
+
+	public boolean equals(Object o) {
+		if (o instanceof IdSet) {
+			IdSet other = (IdSet) o;
+			return other.size() == size() && intersectionSize(other) == size();
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		int result = 0;
+		for (IdIterator it = new IdIterator(); it.hasNext();)
+			result += it.nextId();
+		return result;
+	}
+
+	public Iterator<Integer> iterator() {
+		return new IdIterator();
+	}
+
+	/**
+	 * iterates over the ids in ascending order
+	 */
+	private class IdIterator implements Iterator<Integer> {
+		private int k; // index of the current container
+		private int position; // index within an array container, bit within a bitmap container
+		private int last;
+		private boolean removable;
+
+		public boolean hasNext() {
+			Storage s = storage;
+			while (k < s.count) {
+				Object container = s.containers[k];
+				if (container instanceof long[]) {
+					long[] bits = (long[]) container;
+					int w = position >>> 6;
+					if (w < WORDS) {
+						long word = bits[w] & (-1L << position);
+						while (word == 0 && ++w < WORDS)
+							word = bits[w];
+						if (word != 0) {
+							position = (w << 6) + Long.numberOfTrailingZeros(word);
+							return true;
+						}
+					}
+				} else if (position < s.cardinalities[k]) return true;
+				k++;
+				position = 0;
+			}
+			return false;
+		}
+
+		int nextId() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Storage s = storage;
+			Object container = s.containers[k];
+			int low = (container instanceof long[]) ? position : ((char[]) container)[position];
+			position++;
+			last = (s.keys[k] << 16) | low;
+			removable = true;
+			return last;
+		}
+
+		public Integer next() {
+			return nextId();
+		}
+
+		public void remove() {
+			if (!removable) throw new IllegalStateException();
+			IdSet.this.remove(last);
+			removable = false;
+			if (last == Integer.MAX_VALUE) {
+				k = storage.count;
+			} else seek(last + 1);
+		}
+
+		/**
+		 * moves to the first id not less than the given one
+		 */
+		private void seek(int id) {
+			Storage s = storage;
+			k = s.find(id >> 16);
+			if (k < 0) {
+				k = -k - 1;
+				position = 0;
+				return;
+			}
+			char low = (char) id;
+			Object container = s.containers[k];
+			if (container instanceof long[]) {
+				position = low;
+			} else {
+				position = Arrays.binarySearch((char[]) container, 0, s.cardinalities[k], low);
+				if (position < 0) position = -position - 1;
+			}
+		}
+	}
+
+	// operations on containers
+
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+
+	/**
+	 * combines the containers of two sets
+	 *
+	 * @param reuse if set, the containers of a are taken over instead of being copied
+	 * @return new storage holding the result
+	 */
+	private static Storage combine(Storage a, Storage b, int operation, boolean reuse) {
+		Storage result = new Storage();
+		int capacity = (operation == UNION) ? a.count + b.count : a.count;
+		result.keys = new int[Math.max(4, capacity)];
+		result.containers = new Object[result.keys.length];
+		result.cardinalities = new int[result.keys.length];
+		int i = 0, j = 0;
+		while (i < a.count || j < b.count) {
+			if (j == b.count || (i < a.count && a.keys[i] < b.keys[j])) {
+				if (operation != INTERSECTION) result.append(a.keys[i], reuse ? trim(a.containers[i], a.cardinalities[i]) : copy(a.containers[i], a.cardinalities[i]));
+				i++;
+			} else if (i == a.count || a.keys[i] > b.keys[j]) {
+				if (operation == UNION) result.append(b.keys[j], copy(b.containers[j], b.cardinalities[j]));
+				j++;
+			} else {
+				Object x = a.containers[i], y = b.containers[j];
+				int nx = a.cardinalities[i], ny = b.cardinalities[j];
+				Object container;
+				if (operation == UNION) {
+					container = union(x, nx, y, ny);
+				} else if (operation == INTERSECTION) {
+					container = intersection(x, nx, y, ny);
+				} else container = difference(x, nx, y, ny);
+				result.append(a.keys[i], container);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	private static Object copy(Object container, int cardinality) {
+		if (container instanceof long[]) return ((long[]) container).clone();
+		return Arrays.copyOf((char[]) container, cardinality);
+	}
+
+	/**
+	 * @return the container itself, array containers cut to their cardinality
+	 */
+	private static Object trim(Object container, int cardinality) {
+		if (container instanceof long[] || ((char[]) container).length == cardinality) return container;
+		return Arrays.copyOf((char[]) container, cardinality);
+	}
+
+	/**
+	 * @return the cardinality of a container, array containers have to be trimmed
+	 */
+	private static int cardinality(Object container) {
+		if (container instanceof char[]) return ((char[]) container).length;
+		int result = 0;
+		for (long word : (long[]) container)
+			result += Long.bitCount(word);
+		return result;
+	}
+
+	private static long[] toBitmap(char[] array, int cardinality) {
+		long[] bits = new long[WORDS];
+		for (int i = 0; i < cardinality; i++)
+			bits[array[i] >>> 6] |= 1L << array[i];
+		return bits;
+	}
+
+	private static char[] toArray(long[] bits, int cardinality) {
+		char[] array = new char[cardinality];
+		int i = 0;
+		for (int w = 0; w < WORDS; w++) {
+			long word = bits[w];
+			while (word != 0) {
+				array[i++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * @return null for empty bitmaps, an array container for sparse ones, the bitmap itself otherwise
+	 */
+	private static Object normalize(long[] bits) {
+		int cardinality = cardinality(bits);
+		if (cardinality == 0) return null;
+		return (cardinality <= ARRAY_LIMIT) ? toArray(bits, cardinality) : bits;
+	}
+
+	private static Object union(Object x, int nx, Object y, int ny) {
+		if (x instanceof char[] && y instanceof char[]) {
+			char[] a = (char[]) x, b = (char[]) y;
+			if (nx + ny > ARRAY_LIMIT) {
+				long[] bits = toBitmap(a, nx);
+				for (int j = 0; j < ny; j++)
+					bits[b[j] >>> 6] |= 1L << b[j];
+				return normalize(bits);
+			}
+			char[] result = new char[nx + ny];
+			int i = 0, j = 0, n = 0;
+			while (i < nx && j < ny) {
+				if (a[i] < b[j]) {
+					result[n++] = a[i++];
+				} else if (a[i] > b[j]) {
+					result[n++] = b[j++];
+				} else {
+					result[n++] = a[i++];
+					j++;
+				}
+			}
+			while (i < nx)
+				result[n++] = a[i++];
+			while (j < ny)
+				result[n++] = b[j++];
+			return (n == result.length) ? result : Arrays.copyOf(result, n);
+		}
+		if (x instanceof char[]) return union(y, ny, x, nx);
+		long[] bits = ((long[]) x).clone();
+		if (y instanceof long[]) {
+			long[] other = (long[]) y;
+			for (int w = 0; w < WORDS; w++)
+				bits[w] |= other[w];
+		} else {
+			char[] array = (char[]) y;
+			for (int j = 0; j < ny; j++)
+				bits[array[j] >>> 6] |= 1L << array[j];
+		}
+		return bits;
+	}
+
+	private static Object intersection(Object x, int nx, Object y, int ny) {
+		if (x instanceof char[] && y instanceof char[]) {
+			char[] a = (char[]) x, b = (char[]) y;
+			char[] result = new char[Math.min(nx, ny)];
+			int i = 0, j = 0, n = 0;
+			while (i < nx && j < ny) {
+				if (a[i] < b[j]) {
+					i++;
+				} else if (a[i] > b[j]) {
+					j++;
+				} else {
+					result[n++] = a[i++];
+					j++;
+				}
+			}
+			if (n == 0) return null;
+			return (n == result.length) ? result : Arrays.copyOf(result, n);
+		}
+		if (x instanceof long[] && y instanceof long[]) {
+			long[] a = (long[]) x, b = (long[]) y;
+			long[] bits = new long[WORDS];
+			for (int w = 0; w < WORDS; w++)
+				bits[w] = a[w] & b[w];
+			return normalize(bits);
+		}
+		if (x instanceof long[]) return intersection(y, ny, x, nx);
+		char[] array = (char[]) x; // filter the array by the bitmap
+		long[] bits = (long[]) y;
+		char[] result = new char[nx];
+		int n = 0;
+		for (int i = 0; i < nx; i++)
+			if ((bits[array[i] >>> 6] & (1L << array[i])) != 0) result[n++] = array[i];
+		if (n == 0) return null;
+		return (n == result.length) ? result : Arrays.copyOf(result, n);
+	}
+
+	private static Object difference(Object x, int nx, Object y, int ny) {
+		if (x instanceof char[]) {
+			char[] a = (char[]) x;
+			char[] result = new char[nx];
+			int n = 0;
+			if (y instanceof long[]) {
+				long[] bits = (long[]) y;
+				for (int i = 0; i < nx; i++)
+					if ((bits[a[i] >>> 6] & (1L << a[i])) == 0) result[n++] = a[i];
+			} else {
+				char[] b = (char[]) y;
+				int j = 0;
+				for (int i = 0; i < nx; i++) {
+					while (j < ny && b[j] < a[i])
+						j++;
+					if (j == ny || b[j] != a[i]) result[n++] = a[i];
+				}
+			}
+			if (n == 0) return null;
+			return (n == result.length) ? result : Arrays.copyOf(result, n);
+		}
+		long[] bits = ((long[]) x).clone();
+		if (y instanceof long[]) {
+			long[] other = (long[]) y;
+			for (int w = 0; w < WORDS; w++)
+				bits[w] &= ~other[w];
+		} else {
+			char[] array = (char[]) y;
+			for (int j = 0; j < ny; j++)
+				bits[array[j] >>> 6] &= ~(1L << array[j]);
+		}
+		return normalize(bits);
+	}
+
+	private static int intersectionSize(Object x, int nx, Object y, int ny) {
+		int result = 0;
+		if (x instanceof char[] && y instanceof char[]) {
+			char[] a = (char[]) x, b = (char[]) y;
+			int i = 0, j = 0;
+			while (i < nx && j < ny) {
+				if (a[i] < b[j]) {
+					i++;
+				} else if (a[i] > b[j]) {
+					j++;
+				} else {
+					result++;
+					i++;
+					j++;
+				}
+			}
+		} else if (x instanceof long[] && y instanceof long[]) {
+			long[] a = (long[]) x, b = (long[]) y;
+			for (int w = 0; w < WORDS; w++)
+				result += Long.bitCount(a[w] & b[w]);
+		} else {
+			if (x instanceof long[]) return intersectionSize(y, ny, x, nx);
+			char[] array = (char[]) x;
+			long[] bits = (long[]) y;
+			for (int i = 0; i < nx; i++)
+				if ((bits[array[i] >>> 6] & (1L << array[i])) != 0) result++;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,319 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * isotopic distribution of a formula. the distribution is calculated by convolution of the isotope polynomials of the
+ * elements (using repeated squaring for the element counts). after every convolution step peaks below the probability
+ * threshold are dropped and only the most probable peaks are kept, so the effort stays bounded for large molecules.
+ *
+ * the aggregated distribution merges all isotopologues with the same nucleon number into one peak (at their mean mass),
+ * the fine distribution keeps isotopologues with different exact masses apart.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class IsotopePattern {
+
+	private static final double FINE_RESOLUTION = 1e-6; // peaks closer than this are considered identical
+
+	private final double[] masses; // sorted ascending
+	private final double[] probabilities;
+
+	/**
+	 * peak list used during calculation
+	 */
+	private static class Peaks {
+		double[] mass;
+		double[] probability;
+		int[] nucleons;
+		int size;
+
+		Peaks(int capacity) {
+			mass = new double[capacity];
+			probability = new double[capacity];
+			nucleons = new int[capacity];
+		}
+
+		void add(double m, double p, int n) {
+			mass[size] = m;
+			probability[size] = p;
+			nucleons[size++] = n;
+		}
+	}
+
+	private IsotopePattern(double[] masses, double[] probabilities) {
+		this.masses = masses;
+		this.probabilities = probabilities;
+	}
+
+	/**
+	 * calculates the isotope pattern of the given formula
+	 *
+	 * @param formula the formula of interest
+	 * @param threshold peaks with a probability below this value are dropped
+	 * @param maxPeaks the maximum number of peaks kept
+	 * @param fine if set, the fine distribution is calculated, the aggregated one otherwise
+	 * @return the isotope pattern, or null, if the formula contains elements without isotope data or non-integer counts
+	 */
+	public static IsotopePattern of(Formula formula, double threshold, int maxPeaks, boolean fine) {
+		return of(formula.compact(), threshold, maxPeaks, fine);
+	}
+
+	/**
+	 * calculates the isotope pattern of the given formula
+	 *
+	 * @param formula the formula of interest
+	 * @param threshold peaks with a probability below this value are dropped
+	 * @param maxPeaks the maximum number of peaks kept
+	 * @param fine if set, the fine distribution is calculated, the aggregated one otherwise
+	 * @return the isotope pattern, or null, if the formula contains elements without isotope data or non-integer counts
+	 */
+	public static IsotopePattern of(CompactFormula formula, double threshold, int maxPeaks, boolean fine) {
+		if (maxPeaks < 1) throw new IllegalArgumentException("maxPeaks has to be positive, found " + maxPeaks);
+		Peaks result = new Peaks(1);
+		result.add(0.0, 1.0, 0);
+		for (int i = 0; i < formula.size(); i++) {
+			int element = formula.element(i);
+			double count = formula.countAt(i);
+			if (!IsotopeTable.isKnown(element) || count < 0 || count != Math.rint(count)) return null;
+			result = convolve(result, power(element, (long) count, threshold, maxPeaks, fine), threshold, maxPeaks, fine);
+		}
+		return new IsotopePattern(Arrays.copyOf(result.mass, result.size), Arrays.copyOf(result.probability, result.size));
+	}
+
+	/**
+	 * calculates the distribution of count atoms of the given element by repeated squaring
+	 */
+	private static Peaks power(int element, long count, double threshold, int maxPeaks, boolean fine) {
+		double[] isotopeMasses = IsotopeTable.masses(element);
+		double[] abundances = IsotopeTable.abundances(element);
+		Peaks base = new Peaks(isotopeMasses.length);
+		for (int i = 0; i < isotopeMasses.length; i++)
+			base.add(isotopeMasses[i], abundances[i], (int) Math.round(isotopeMasses[i]));
+		Peaks result = new Peaks(1);
+		result.add(0.0, 1.0, 0);
+		while (count > 0) {
+			if ((count & 1) != 0) result = convolve(result, base, threshold, maxPeaks, fine);
+			count >>= 1;
+			if (count > 0) base = convolve(base, base, threshold, maxPeaks, fine);
+		}
+		return result;
+	}
+
+	private static Peaks convolve(Peaks a, Peaks b, double threshold, int maxPeaks, boolean fine) {
+		Peaks product = new Peaks(a.size * b.size);
+		for (int i = 0; i < a.size; i++) {
+			for (int j = 0; j < b.size; j++) {
+				double p = a.probability[i] * b.probability[j];
+				if (p < threshold) continue;
+				product.add(a.mass[i] + b.mass[j], p, a.nucleons[i] + b.nucleons[j]);
+			}
+		}
+		return prune(fine ? mergeFine(product) : mergeAggregated(product), maxPeaks);
+	}
+
+	/**
+	 * merges peaks with equal nucleon numbers. the result is ordered by nucleon number
+	 */
+	private static Peaks mergeAggregated(Peaks peaks) {
+		if (peaks.size == 0) return peaks;
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = 0; i < peaks.size; i++) {
+			min = Math.min(min, peaks.nucleons[i]);
+			max = Math.max(max, peaks.nucleons[i]);
+		}
+		double[] probability = new double[max - min + 1];
+		double[] weightedMass = new double[max - min + 1];
+		for (int i = 0; i < peaks.size; i++) {
+			int bucket = peaks.nucleons[i] - min;
+			probability[bucket] += peaks.probability[i];
+			weightedMass[bucket] += peaks.probability[i] * peaks.mass[i];
+		}
+		Peaks result = new Peaks(probability.length);
+		for (int bucket = 0; bucket < probability.length; bucket++) {
+			if (probability[bucket] > 0) result.add(weightedMass[bucket] / probability[bucket], probability[bucket], bucket + min);
+		}
+		return result;
+	}
+
+	/**
+	 * merges peaks with (numerically) identical masses. the result is ordered by mass
+	 */
+	private static Peaks mergeFine(Peaks peaks) {
+		sort(peaks, 0, peaks.size - 1);
+		Peaks result = new Peaks(peaks.size);
+		for (int i = 0; i < peaks.size; i++) {
+			int last = result.size - 1;
+			if (last >= 0 && peaks.mass[i] - result.mass[last] < FINE_RESOLUTION) {
+				double p = result.probability[last] + peaks.probability[i];
+				result.mass[last] = (result.mass[last] * result.probability[last] + peaks.mass[i] * peaks.probability[i]) / p;
+				result.probability[last] = p;
+			} else result.add(peaks.mass[i], peaks.probability[i], peaks.nucleons[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * keeps the maxPeaks most probable peaks, preserving their order
+	 */
+	private static Peaks prune(Peaks peaks, int maxPeaks) {
+		if (peaks.size <= maxPeaks) return peaks;
+		double[] sorted = Arrays.copyOf(peaks.probability, peaks.size);
+		Arrays.sort(sorted);
+		double limit = sorted[peaks.size - maxPeaks];
+		int above = 0; // number of peaks, which are strictly more probable than the limit
+		for (int i = 0; i < peaks.size; i++)
+			if (peaks.probability[i] > limit) above++;
+		int equalAllowed = maxPeaks - above;
+		Peaks result = new Peaks(maxPeaks);
+		for (int i = 0; i < peaks.size; i++) {
+			double p = peaks.probability[i];
+			if (p > limit || (p == limit && equalAllowed-- > 0)) result.add(peaks.mass[i], p, peaks.nucleons[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * quicksort of the peaks by mass
+	 */
+	private static void sort(Peaks peaks, int lo, int hi) {
+		while (lo < hi) {
+			double pivot = peaks.mass[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (peaks.mass[i] < pivot)
+					i++;
+				while (peaks.mass[j] > pivot)
+					j--;
+				if (i <= j) swap(peaks, i++, j--);
+			}
+			if (j - lo < hi - i) {
+				sort(peaks, lo, j);
+				lo = i;
+			} else {
+				sort(peaks, i, hi);
+				hi = j;
+			}
+		}
+	}
+
+	private static void swap(Peaks peaks, int a, int b) {
+		double m = peaks.mass[a];
+		peaks.mass[a] = peaks.mass[b];
+		peaks.mass[b] = m;
+		double p = peaks.probability[a];
+		peaks.probability[a] = peaks.probability[b];
+		peaks.probability[b] = p;
+		int n = peaks.nucleons[a];
+		peaks.nucleons[a] = peaks.nucleons[b];
+		peaks.nucleons[b] = n;
+	}
+
+	/**
+	 * calculates the isotope patterns of many substances using several threads
+	 *
+	 * @param components the substances of interest. other components, substances without formula and substances whose
+	 *          pattern can not be calculated are skipped
+	 * @param threshold peaks with a probability below this value are dropped
+	 * @param maxPeaks the maximum number of peaks kept per pattern
+	 * @param fine if set, the fine distributions are calculated, the aggregated ones otherwise
+	 * @param threads the number of threads to use
+	 * @return mapping from substance ids to isotope patterns
+	 * @throws InterruptedException
+	 */
+	public static TreeMap<Integer, IsotopePattern> of(Collection<? extends Component> components, final double threshold, final int maxPeaks, final boolean fine, int threads) throws InterruptedException {
+		final int chunkSize = 1024;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		TreeMap<Integer, IsotopePattern> result = new TreeMap<Integer, IsotopePattern>();
+		try {
+			LinkedList<Future<Object[]>> pending = new LinkedList<Future<Object[]>>();
+			Iterator<? extends Component> it = components.iterator();
+			while (it.hasNext()) {
+				final Substance[] chunk = new Substance[chunkSize];
+				int size = 0;
+				while (size < chunkSize && it.hasNext()) {
+					Component component = it.next();
+					if (component instanceof Substance && ((Substance) component).formula() != null) chunk[size++] = (Substance) component;
+				}
+				final int chunkLength = size;
+				pending.add(pool.submit(new Callable<Object[]>() {
+					public Object[] call() {
+						IsotopePattern[] patterns = new IsotopePattern[chunkLength];
+						for (int i = 0; i < chunkLength; i++)
+							patterns[i] = of(chunk[i].formula(), threshold, maxPeaks, fine);
+						return new Object[] { chunk, patterns };
+					}
+				}));
+			}
+			for (Future<Object[]> future : pending) {
+				Object[] done;
+				try {
+					done = future.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				Substance[] substances = (Substance[]) done[0];
+				IsotopePattern[] patterns = (IsotopePattern[]) done[1];
+				for (int i = 0; i < patterns.length; i++) {
+					if (patterns[i] != null) result.put(substances[i].id(), patterns[i]);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of peaks
+	 */
+	public int size() {
+		return masses.length;
+	}
+
+	/**
+	 * @param index number of the peak, has to be smaller than size()
+	 * @return the mass of the given peak
+	 */
+	public double mass(int index) {
+		return masses[index];
+	}
+
+	/**
+	 * @param index number of the peak, has to be smaller than size()
+	 * @return the probability of the given peak
+	 */
+	public double probability(int index) {
+		return probabilities[index];
+	}
+
+	/**
+	 * @return the index of the most probable peak, -1 if there are no peaks
+	 */
+	public int basePeak() {
+		int result = -1;
+		for (int i = 0; i < probabilities.length; i++) {
+			if (result < 0 || probabilities[i] > probabilities[result]) result = i;
+		}
+		return result;
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < masses.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(masses[i] + ": " + probabilities[i]);
+		}
+		return "{" + sb.toString() + "}";
+	}
+}
@@ -0,0 +1,127 @@
+package edu.fsuj.csb.tools.organisms;
+
+/**
+ * table of the stable isotopes (masses, nucleon numbers and natural abundances) of the elements occuring in biochemical
+ * compounds. the data is held in primitive arrays indexed by the ids of the {@link ElementTable}.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class IsotopeTable {
+
+	private static final String[] SYMBOLS = { "H", "Li", "B", "C", "N", "O", "F", "Na", "Mg", "Al", "Si", "P", "S", "Cl", "K", "Ca", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", "Se", "Br", "Mo", "I", "W" };
+	private static final double[][] MASSES = {
+		{ 1.00782503207, 2.0141017778 }, // H
+		{ 6.015122795, 7.01600455 }, // Li
+		{ 10.0129370, 11.0093054 }, // B
+		{ 12.0, 13.0033548378 }, // C
+		{ 14.0030740048, 15.0001088982 }, // N
+		{ 15.99491461956, 16.99913170, 17.9991610 }, // O
+		{ 18.99840322 }, // F
+		{ 22.9897692809 }, // Na
+		{ 23.985041700, 24.98583692, 25.982592929 }, // Mg
+		{ 26.98153863 }, // Al
+		{ 27.9769265325, 28.976494700, 29.97377017 }, // Si
+		{ 30.97376163 }, // P
+		{ 31.97207100, 32.97145876, 33.96786690, 35.96708076 }, // S
+		{ 34.96885268, 36.96590259 }, // Cl
+		{ 38.96370668, 39.96399848, 40.96182576 }, // K
+		{ 39.96259098, 41.95861801, 42.9587666, 43.9554818, 45.9536926, 47.952534 }, // Ca
+		{ 54.9380451 }, // Mn
+		{ 53.9396105, 55.9349375, 56.9353940, 57.9332756 }, // Fe
+		{ 58.9331950 }, // Co
+		{ 57.9353429, 59.9307864, 60.9310560, 61.9283451, 63.9279660 }, // Ni
+		{ 62.9295975, 64.9277895 }, // Cu
+		{ 63.9291422, 65.9260334, 66.9271273, 67.9248442, 69.9253193 }, // Zn
+		{ 73.9224764, 75.9192136, 76.9199140, 77.9173091, 79.9165213, 81.9166994 }, // Se
+		{ 78.9183371, 80.9162906 }, // Br
+		{ 91.906811, 93.9050883, 94.9058421, 95.9046795, 96.9060215, 97.9054082, 99.907477 }, // Mo
+		{ 126.904473 }, // I
+		{ 179.946704, 181.9482042, 182.9502230, 183.9509312, 185.9543641 } // W
+	};
+	private static final double[][] ABUNDANCES = {
+		{ 0.999885, 0.000115 }, // H
+		{ 0.0759, 0.9241 }, // Li
+		{ 0.199, 0.801 }, // B
+		{ 0.9893, 0.0107 }, // C
+		{ 0.99636, 0.00364 }, // N
+		{ 0.99757, 0.00038, 0.00205 }, // O
+		{ 1.0 }, // F
+		{ 1.0 }, // Na
+		{ 0.7899, 0.1000, 0.1101 }, // Mg
+		{ 1.0 }, // Al
+		{ 0.92223, 0.04685, 0.03092 }, // Si
+		{ 1.0 }, // P
+		{ 0.9499, 0.0075, 0.0425, 0.0001 }, // S
+		{ 0.7576, 0.2424 }, // Cl
+		{ 0.932581, 0.000117, 0.067302 }, // K
+		{ 0.96941, 0.00647, 0.00135, 0.02086, 0.00004, 0.00187 }, // Ca
+		{ 1.0 }, // Mn
+		{ 0.05845, 0.91754, 0.02119, 0.00282 }, // Fe
+		{ 1.0 }, // Co
+		{ 0.680769, 0.262231, 0.011399, 0.036345, 0.009256 }, // Ni
+		{ 0.6915, 0.3085 }, // Cu
+		{ 0.48268, 0.27975, 0.04102, 0.19024, 0.00631 }, // Zn
+		{ 0.0089, 0.0937, 0.0763, 0.2377, 0.4961, 0.0873 }, // Se
+		{ 0.5069, 0.4931 }, // Br
+		{ 0.1477, 0.0923, 0.1590, 0.1668, 0.0956, 0.2419, 0.0967 }, // Mo
+		{ 1.0 }, // I
+		{ 0.0012, 0.2650, 0.1431, 0.3064, 0.2843 } // W
+	};
+
+	private static volatile int[] rowById = new int[0]; // element id => row in the tables above, -1 if unknown
+
+	private static int row(int elementId) {
+		int[] rows = rowById;
+		if (elementId >= rows.length) rows = update();
+		return rows[elementId];
+	}
+
+	/**
+	 * extends the id indexed table to the elements registered in the meantime
+	 */
+	private static synchronized int[] update() {
+		int[] current = rowById;
+		int size = ElementTable.size();
+		if (current.length >= size) return current;
+		int[] rows = new int[size];
+		for (int id = 0; id < size; id++) {
+			rows[id] = -1;
+			String symbol = ElementTable.symbol(id);
+			for (int i = 0; i < SYMBOLS.length; i++) {
+				if (SYMBOLS[i].equals(symbol)) {
+					rows[id] = i;
+					break;
+				}
+			}
+		}
+		rowById = rows;
+		return rows;
+	}
+
+	/**
+	 * @param elementId the id of an element in the {@link ElementTable}
+	 * @return true, if isotope data is available for the given element
+	 */
+	public static boolean isKnown(int elementId) {
+		return row(elementId) >= 0;
+	}
+
+	/**
+	 * @param elementId the id of an element in the {@link ElementTable}
+	 * @return the masses of the stable isotopes of the element, null if unknown. the array must not be modified
+	 */
+	public static double[] masses(int elementId) {
+		int row = row(elementId);
+		return (row < 0) ? null : MASSES[row];
+	}
+
+	/**
+	 * @param elementId the id of an element in the {@link ElementTable}
+	 * @return the natural abundances of the stable isotopes of the element, null if unknown. the array must not be modified
+	 */
+	public static double[] abundances(int elementId) {
+		int row = row(elementId);
+		return (row < 0) ? null : ABUNDANCES[row];
+	}
+}
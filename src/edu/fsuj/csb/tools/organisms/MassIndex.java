@@ -0,0 +1,186 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Collection;
+
+/**
+ * index over the masses of substances. the masses are held in a sorted primitive array together with the substance ids,
+ * so queries like "all substances within 5 ppm of mass x" are answered by binary search. substances without formula or
+ * with elements of unknown mass are not indexed.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class MassIndex {
+
+	private double[] masses; // sorted ascending
+	private int[] ids; // ids[i] is the substance id belonging to masses[i]
+
+	/**
+	 * creates an index over the monoisotopic masses of all substances registered so far
+	 */
+	public MassIndex() {
+		this(Component.all(), true);
+	}
+
+	/**
+	 * creates an index over the given components. components which are no substances are ignored
+	 *
+	 * @param components the substances to be indexed
+	 * @param monoisotopic if set, monoisotopic masses are indexed, average masses otherwise
+	 */
+	public MassIndex(Collection<? extends Component> components, boolean monoisotopic) {
+		masses = new double[components.size()];
+		ids = new int[components.size()];
+		int size = 0;
+		for (Component component : components) {
+			if (!(component instanceof Substance)) continue;
+			Formula formula = ((Substance) component).formula();
+			if (formula == null) continue;
+			double mass = monoisotopic ? formula.monoisotopicMass() : formula.averageMass();
+			if (Double.isNaN(mass)) continue;
+			masses[size] = mass;
+			ids[size++] = component.id();
+		}
+		if (size < masses.length) {
+			double[] m = new double[size];
+			int[] i = new int[size];
+			System.arraycopy(masses, 0, m, 0, size);
+			System.arraycopy(ids, 0, i, 0, size);
+			masses = m;
+			ids = i;
+		}
+		sort(0, size - 1);
+	}
+
+	/**
+	 * quicksort over both arrays, ordered by mass
+	 */
+	private void sort(int lo, int hi) {
+		while (hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			if (masses[mid] < masses[lo]) swap(mid, lo);
+			if (masses[hi] < masses[lo]) swap(hi, lo);
+			if (masses[hi] < masses[mid]) swap(hi, mid);
+			double pivot = masses[mid];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (masses[i] < pivot)
+					i++;
+				while (masses[j] > pivot)
+					j--;
+				if (i <= j) swap(i++, j--);
+			}
+			if (j - lo < hi - i) { // recurse into the smaller part
+				sort(lo, j);
+				lo = i;
+			} else {
+				sort(i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo && masses[j] < masses[j - 1]; j--)
+				swap(j, j - 1);
+		}
+	}
+
+	private void swap(int a, int b) {
+		double m = masses[a];
+		masses[a] = masses[b];
+		masses[b] = m;
+		int id = ids[a];
+		ids[a] = ids[b];
+		ids[b] = id;
+	}
+
+	/**
+	 * @return the number of indexed substances
+	 */
+	public int size() {
+		return masses.length;
+	}
+
+	/**
+	 * @param index position in the index, has to be smaller than size()
+	 * @return the mass at the given position
+	 */
+	public double mass(int index) {
+		return masses[index];
+	}
+
+	/**
+	 * @param index position in the index, has to be smaller than size()
+	 * @return the substance id at the given position
+	 */
+	public int id(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @param mass a mass
+	 * @return the first position in the index with a mass greater or equal to the given one, size() if there is none
+	 */
+	public int lowerBound(double mass) {
+		int lo = 0, hi = masses.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (masses[mid] < mass) {
+				lo = mid + 1;
+			} else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param mass a mass
+	 * @return the first position in the index with a mass greater than the given one, size() if there is none
+	 */
+	public int upperBound(double mass) {
+		int lo = 0, hi = masses.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (masses[mid] <= mass) {
+				lo = mid + 1;
+			} else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param lower the smallest mass of interest
+	 * @param upper the largest mass of interest
+	 * @return the ids of all substances with masses within [lower, upper], ordered by mass
+	 */
+	public int[] range(double lower, double upper) {
+		int from = lowerBound(lower);
+		int to = upperBound(upper);
+		if (to <= from) return new int[0];
+		int[] result = new int[to - from];
+		System.arraycopy(ids, from, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * @param mass the measured mass
+	 * @param ppm the tolerance in parts per million
+	 * @return the ids of all substances with masses within mass +- ppm, ordered by mass
+	 */
+	public int[] find(double mass, double ppm) {
+		double tolerance = mass * ppm * 1e-6;
+		return range(mass - tolerance, mass + tolerance);
+	}
+
+	/**
+	 * looks up many masses at once
+	 *
+	 * @param masses the measured masses
+	 * @param ppm the tolerance in parts per million
+	 * @return for every given mass the ids of the matching substances
+	 */
+	public int[][] find(double[] masses, double ppm) {
+		int[][] result = new int[masses.length][];
+		for (int i = 0; i < masses.length; i++)
+			result[i] = find(masses[i], ppm);
+		return result;
+	}
+}
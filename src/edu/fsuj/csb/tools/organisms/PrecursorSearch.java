@@ -0,0 +1,399 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * backward scope: searches minimal sets of precursors (seeds), from which all given target substances can be produced.
+ * the search is a branch and bound over the seed sets: in every step an unproduced target is chosen, and the search
+ * branches over the precursors, from which this target may still be reached. branches are pruned, if they can not beat
+ * the best solution found so far or if the targets are not producible even from all precursors still allowed in the
+ * branch. the branches at the root are explored in parallel.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class PrecursorSearch {
+
+	private final ReactionNetwork network;
+	private final int[] producerStart, producers; // the directed reactions producing substance s are producers[producerStart[s]..producerStart[s+1]-1]
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long timeLimit = Long.MAX_VALUE; // milliseconds
+	private int maxSolutions = 1;
+	private int maxSize = Integer.MAX_VALUE;
+	private Collection<Integer> background = null;
+	private Collection<Integer> candidates = null;
+
+	/**
+	 * the outcome of a search
+	 */
+	public static class Result {
+		private Vector<TreeSet<Integer>> solutions = new Vector<TreeSet<Integer>>();
+		private int size;
+		private boolean complete = true;
+
+		/**
+		 * @return the precursor sets of the smallest size found
+		 */
+		public Vector<TreeSet<Integer>> solutions() {
+			return solutions;
+		}
+
+		/**
+		 * @return the size of the precursor sets found, -1 if there is none
+		 */
+		public int size() {
+			return solutions.isEmpty() ? -1 : size;
+		}
+
+		/**
+		 * @return true, if the search space has been searched completely, i.e. the solutions are proven to be minimal (or proven
+		 *         not to exist). false, if the search has been stopped by the time limit
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		public String toString() {
+			return (complete ? "" : "incomplete: ") + solutions.toString();
+		}
+	}
+
+	/**
+	 * @param network the network, in which the precursors shall be searched
+	 */
+	public PrecursorSearch(ReactionNetwork network) {
+		this.network = network;
+		int substances = network.substanceCount();
+		producerStart = new int[substances + 1];
+		for (int i = 0; i < network.outputs.length; i++)
+			producerStart[network.outputs[i] + 1]++;
+		for (int s = 0; s < substances; s++)
+			producerStart[s + 1] += producerStart[s];
+		producers = new int[network.outputs.length];
+		int[] fill = Arrays.copyOf(producerStart, substances);
+		for (int d = 0; d < network.directionCount(); d++) {
+			for (int i = network.outputStart[d]; i < network.outputStart[d + 1]; i++)
+				producers[fill[network.outputs[i]]++] = d;
+		}
+	}
+
+	/**
+	 * @param compartment the compartment, in which the precursors shall be searched
+	 */
+	public PrecursorSearch(Compartment compartment) {
+		this(compartment.reactions().network(compartment));
+	}
+
+	/**
+	 * @param threads the number of threads used, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param milliseconds the search is stopped after this time. the result then holds the best solutions found so far
+	 */
+	public void setTimeLimit(long milliseconds) {
+		timeLimit = milliseconds;
+	}
+
+	/**
+	 * @param count the maximum number of precursor sets (of minimal size) to be reported, defaults to 1
+	 */
+	public void setMaxSolutions(int count) {
+		if (count < 1) throw new IllegalArgumentException("number of solutions has to be positive, found " + count);
+		maxSolutions = count;
+	}
+
+	/**
+	 * @param size only precursor sets up to this size are searched
+	 */
+	public void setMaxSize(int size) {
+		maxSize = size;
+	}
+
+	/**
+	 * @param substanceIds substances, which are always available and do not count as precursors (e.g. water or cofactors)
+	 */
+	public void setBackground(Collection<Integer> substanceIds) {
+		background = substanceIds;
+	}
+
+	/**
+	 * @param substanceIds the substances allowed as precursors (e.g. those, which can be taken up). if not set, all substances
+	 *          of the network are allowed
+	 */
+	public void setCandidates(Collection<Integer> substanceIds) {
+		candidates = substanceIds;
+	}
+
+	/**
+	 * state of a node of the search tree
+	 */
+	private class Node {
+		boolean[] available; // closure of the seeds (and the background)
+		int[] missing; // unavailable inputs per directed reaction
+		boolean[] forbidden; // candidates excluded in this branch
+		int[] seeds; // the chosen precursors
+		int uncovered; // number of unproduced targets
+
+		Node child(int seed) {
+			Node child = new Node();
+			child.available = available.clone();
+			child.missing = missing.clone();
+			child.forbidden = forbidden.clone();
+			child.seeds = Arrays.copyOf(seeds, seeds.length + 1);
+			child.seeds[seeds.length] = seed;
+			child.available[seed] = true;
+			propagate(child.available, child.missing, seed);
+			return child;
+		}
+	}
+
+	/**
+	 * makes the given substance available and propagates it through the network
+	 */
+	private void propagate(boolean[] available, int[] missing, int start) {
+		int[] queue = new int[network.substanceCount()];
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+		while (head < tail) {
+			int s = queue[head++];
+			for (int i = network.consumerStart[s]; i < network.consumerStart[s + 1]; i++) {
+				int d = network.consumers[i];
+				if (--missing[d] == 0) {
+					for (int k = network.outputStart[d]; k < network.outputStart[d + 1]; k++) {
+						int o = network.outputs[k];
+						if (!available[o]) {
+							available[o] = true;
+							queue[tail++] = o;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * a single search run
+	 */
+	private class Run {
+		private final int[] targets;
+		private final boolean[] allowed;
+		private final int[] forced; // targets outside the network, which have to be precursors themselves
+		private final long deadline;
+		private final Result result = new Result();
+		private volatile int best; // size of the best solutions found so far, the size limit of the seeds before the first solution
+		private volatile boolean full; // true, if maxSolutions solutions of size best have been found
+		private volatile boolean timedOut;
+
+		Run(Collection<Integer> targetIds) {
+			targets = network.indicesOf(targetIds);
+			TreeSet<Integer> outside = new TreeSet<Integer>();
+			for (Integer t : targetIds)
+				if (network.indexOf(t) < 0 && (background == null || !background.contains(t))) outside.add(t);
+			forced = new int[outside.size()];
+			int i = 0;
+			for (Integer t : outside)
+				forced[i++] = t;
+			allowed = new boolean[network.substanceCount()];
+			if (candidates == null) {
+				Arrays.fill(allowed, true);
+			} else for (int s : network.indicesOf(candidates))
+				allowed[s] = true;
+			best = maxSize - forced.length;
+			long now = System.currentTimeMillis();
+			deadline = (timeLimit > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + timeLimit;
+		}
+
+		Node root() {
+			Node root = new Node();
+			root.available = new boolean[network.substanceCount()];
+			if (background != null) for (int s : network.indicesOf(background))
+				root.available[s] = true;
+			root.missing = new int[network.directionCount()];
+			network.closure(root.available, new int[network.substanceCount()], root.missing, null);
+			root.forbidden = new boolean[network.substanceCount()];
+			root.seeds = new int[0];
+			root.uncovered = uncovered(root);
+			return root;
+		}
+
+		int uncovered(Node node) {
+			int count = 0;
+			for (int t : targets)
+				if (!node.available[t]) count++;
+			return count;
+		}
+
+		/**
+		 * @return true, if the targets are producible from the node's state plus all precursors still allowed
+		 */
+		boolean feasible(Node node) {
+			boolean[] available = node.available.clone();
+			for (int s = 0; s < available.length; s++)
+				if (allowed[s] && !node.forbidden[s]) available[s] = true;
+			network.closure(available, new int[available.length], new int[network.directionCount()], null);
+			for (int t : targets)
+				if (!available[t]) return false;
+			return true;
+		}
+
+		/**
+		 * @return true, if a child with the given number of seeds may still improve the result
+		 */
+		boolean promising(int size) {
+			return size < best || (size == best && !full);
+		}
+
+		/**
+		 * determines the precursors, from which the given target may be reached without passing available substances
+		 */
+		int[] branchCandidates(Node node, int target) {
+			boolean[] visited = new boolean[node.available.length];
+			int[] queue = new int[node.available.length];
+			int[] result = new int[node.available.length];
+			int head = 0, tail = 0, count = 0;
+			visited[target] = true;
+			queue[tail++] = target;
+			while (head < tail) {
+				int s = queue[head++];
+				if (allowed[s] && !node.forbidden[s]) result[count++] = s;
+				for (int i = producerStart[s]; i < producerStart[s + 1]; i++) {
+					int d = producers[i];
+					for (int k = network.inputStart[d]; k < network.inputStart[d + 1]; k++) {
+						int input = network.inputs[k];
+						if (!visited[input] && !node.available[input]) {
+							visited[input] = true;
+							queue[tail++] = input;
+						}
+					}
+				}
+			}
+			return Arrays.copyOf(result, count);
+		}
+
+		/**
+		 * creates the children of the given node, ordered by the number of targets left unproduced. every child excludes the
+		 * precursors of its predecessors, so no precursor set is visited twice
+		 */
+		Node[] children(Node node) {
+			int[] choice = null;
+			for (int t : targets) { // branch on the target with the fewest options
+				if (node.available[t]) continue;
+				int[] options = branchCandidates(node, t);
+				if (choice == null || options.length < choice.length) choice = options;
+				if (choice.length <= 1) break;
+			}
+			Node[] children = new Node[choice.length];
+			for (int i = 0; i < choice.length; i++) {
+				children[i] = node.child(choice[i]);
+				children[i].uncovered = uncovered(children[i]);
+			}
+			sort(children);
+			for (int i = 0; i < children.length; i++)
+				for (int j = i + 1; j < children.length; j++)
+					children[j].forbidden[children[i].seeds[node.seeds.length]] = true;
+			return children;
+		}
+
+		void sort(Node[] nodes) {
+			for (int i = 1; i < nodes.length; i++) {
+				Node n = nodes[i];
+				int j = i;
+				for (; j > 0 && nodes[j - 1].uncovered > n.uncovered; j--)
+					nodes[j] = nodes[j - 1];
+				nodes[j] = n;
+			}
+		}
+
+		/**
+		 * depth first search below the given node
+		 */
+		void search(Node node) {
+			if (timedOut) return;
+			if (System.currentTimeMillis() > deadline) {
+				timedOut = true;
+				return;
+			}
+			if (node.uncovered == 0) {
+				report(node.seeds);
+				return;
+			}
+			if (!promising(node.seeds.length + 1) || !feasible(node)) return;
+			for (Node child : children(node)) {
+				if (!promising(child.seeds.length)) return;
+				search(child);
+			}
+		}
+
+		synchronized void report(int[] seeds) {
+			if (seeds.length > best || (seeds.length == best && full)) return;
+			if (seeds.length < best) {
+				result.solutions.clear();
+				best = seeds.length;
+			}
+			TreeSet<Integer> solution = new TreeSet<Integer>();
+			for (int s : seeds)
+				solution.add(network.substance(s));
+			for (int t : forced)
+				solution.add(t);
+			result.solutions.add(solution);
+			result.size = seeds.length + forced.length;
+			full = result.solutions.size() >= maxSolutions;
+		}
+	}
+
+	/**
+	 * searches minimal precursor sets for the given targets
+	 *
+	 * @param targetIds the substances, which shall become producible. targets not occuring in the network can only be
+	 *          precursors themselves
+	 * @return the precursor sets of the smallest size found
+	 * @throws InterruptedException
+	 */
+	public Result search(Collection<Integer> targetIds) throws InterruptedException {
+		final Run run = new Run(targetIds);
+		if (run.best < 0) return run.result; // the targets outside the network already exceed the size limit
+		Node root = run.root();
+		if (root.uncovered == 0) {
+			run.report(root.seeds);
+		} else if (run.promising(1) && run.feasible(root)) {
+			Node[] children = run.children(root);
+			ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, children.length)));
+			try {
+				LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
+				for (final Node child : children) {
+					pending.add(pool.submit(new Callable<Object>() {
+						public Object call() {
+							if (run.promising(child.seeds.length)) run.search(child);
+							return null;
+						}
+					}));
+				}
+				for (Future<Object> future : pending) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		run.result.complete = !run.timedOut;
+		return run.result;
+	}
+}
@@ -1,13 +1,19 @@
 package edu.fsuj.csb.tools.organisms;
 
 import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 
 import edu.fsuj.csb.tools.urn.URN;
@@ -24,10 +30,22 @@ public class Reaction extends Component {
 	public static final byte FORWARD = 1;
 	public static final byte BACKWARD = -1;
 
-	private TreeMap<Integer, Integer> substrates; // substanceID => stohiometry
-	private TreeMap<Integer, Integer> products; // substanceID => stohiometry
-	private TreeMap<Integer, Byte> directions; // mapping from componentId to direction: -1: only backward / 0 both directions / 1 forward only
+	private static final int[] NONE = new int[0];
+	private static final byte[] NO_DIRECTIONS = new byte[0];
+
+	// the stoichiometry is held in primitive arrays, sorted by substance id. maps are only provided as views
+	private int[] substrateIds = NONE;
+	private int[] substrateStoichiometries = NONE;
+	private int[] productIds = NONE;
+	private int[] productStoichiometries = NONE;
+	private int[] directionCompartments = NONE; // sorted compartment ids
+	private byte[] directions = NO_DIRECTIONS; // direction within each compartment: -1: only backward / 0 both directions / 1 forward only
 	protected Boolean spontan=null;
+	private static final AtomicInteger modifications=new AtomicInteger(); // counts creations and modifications of reactions
+	private static final AtomicInteger instances=new AtomicInteger(); // source of the dense reaction indices
+	private final int index=instances.getAndIncrement(); // dense index of this reaction, used by the direction bitsets of the compartments
+	static final int FORWARD_BIT=1;
+	static final int BACKWARD_BIT=2;
 	
 	/**
 	 * @param id the id of the reaction
@@ -38,16 +56,113 @@ public class Reaction extends Component {
 	 */
 	public Reaction(int id, TreeSet<String> names, String mainName, Vector<URN> urns, TreeMap<Integer, Integer> substrates, TreeMap<Integer, Integer> products, TreeMap<Integer, Byte> directions) {
 	  super(id, names, mainName, urns);
-	  this.directions=directions;
-	  this.products=products;
-	  this.substrates=substrates;
+	  addSubstrates(substrates);
+	  addProducts(products);
+	  if (directions!=null) {
+	  	for (Entry<Integer, Byte> direction:directions.entrySet()) addDirection(direction.getKey(), direction.getValue());
+	  }
+	  modifications.incrementAndGet();
   }
 	
 	/**
-	 * @return the substance ids (sid) for all the reaction's products mapped to their stochiometries
+	 * @return a counter, which is increased whenever a reaction is created or altered by one of its add methods. used to detect outdated compiled networks
+	 */
+	static int version() {
+		return modifications.get();
+	}
+	
+	/**
+	 * read-only map view on the stoichiometry arrays of a reaction, iterating in the order of the substance ids
+	 */
+	private class Stoichiometry extends AbstractMap<Integer, Integer> {
+		private final boolean ofProducts;
+
+		private Stoichiometry(boolean ofProducts) {
+			this.ofProducts = ofProducts;
+		}
+
+		private int[] ids() {
+			return ofProducts ? productIds : substrateIds;
+		}
+
+		private int[] stoichiometries() {
+			return ofProducts ? productStoichiometries : substrateStoichiometries;
+		}
+
+		public int size() {
+			return ids().length;
+		}
+
+		public boolean containsKey(Object key) {
+			return (key instanceof Integer) && Arrays.binarySearch(ids(), (Integer) key) >= 0;
+		}
+
+		public Integer get(Object key) {
+			if (!(key instanceof Integer)) return null;
+			int[] ids = ids();
+			int index = Arrays.binarySearch(ids, (Integer) key);
+			return (index < 0) ? null : stoichiometries()[index];
+		}
+
+		public Set<Entry<Integer, Integer>> entrySet() {
+			final int[] ids = ids(), stoichiometries = stoichiometries();
+			return new AbstractSet<Entry<Integer, Integer>>() {
+				public int size() {
+					return ids.length;
+				}
+
+				public Iterator<Entry<Integer, Integer>> iterator() {
+					return new Iterator<Entry<Integer, Integer>>() {
+						private int index = 0;
+
+						public boolean hasNext() {
+							return index < ids.length;
+						}
+
+						public Entry<Integer, Integer> next() {
+							if (index == ids.length) throw new NoSuchElementException();
+							Entry<Integer, Integer> entry = new SimpleImmutableEntry<Integer, Integer>(ids[index], stoichiometries[index]);
+							index++;
+							return entry;
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException("stoichiometry of a reaction can only be changed by its add methods");
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * @return the substance ids (sid) for all the reaction's products mapped to their stochiometries, as read-only view
 	 */
-	public TreeMap<Integer, Integer> products() {
-		return products;
+	public Map<Integer, Integer> products() {
+		return new Stoichiometry(true);
+	}
+
+	/**
+	 * @return the number of products of this reaction
+	 */
+	public int productCount() {
+		return productIds.length;
+	}
+
+	/**
+	 * @param index a number from 0 to productCount()-1. products are ordered by their ids
+	 * @return the id of the product with the given index
+	 */
+	public int productId(int index) {
+		return productIds[index];
+	}
+
+	/**
+	 * @param index a number from 0 to productCount()-1. products are ordered by their ids
+	 * @return the stoichiometry of the product with the given index
+	 */
+	public int productStoichiometry(int index) {
+		return productStoichiometries[index];
 	}
 
 	/**
@@ -57,9 +172,7 @@ public class Reaction extends Component {
 	 * @return true, if the denoted substance is within the reaction's substrate set
 	 */
 	public boolean hasReactant(int sid) {
-		if (substrates==null) return false;
-		if (substrates.isEmpty()) return false;
-		return substrates.keySet().contains(sid);
+		return Arrays.binarySearch(substrateIds, sid) >= 0;
 	}
 
 	/**
@@ -69,16 +182,37 @@ public class Reaction extends Component {
 	 * @return true, if the denoted substance is within the product set of the reaction
 	 */
 	public boolean hasProduct(int sid) {
-		if (products==null) return false;
-		if (products.isEmpty()) return false;
-		return products.keySet().contains(sid);
+		return Arrays.binarySearch(productIds, sid) >= 0;
+	}
+
+	/**
+	 * @return the substance ids (sid) for all the reaction's substrates mapped to their stochiometries, as read-only view
+	 */
+	public Map<Integer, Integer> substrates() {
+		return new Stoichiometry(false);
 	}
 
 	/**
-	 * @return the substance ids (sid) for all the reaction's substrates mapped to their stochiometries
+	 * @return the number of substrates of this reaction
 	 */
-	public TreeMap<Integer, Integer> substrates() {
-		return substrates;
+	public int substrateCount() {
+		return substrateIds.length;
+	}
+
+	/**
+	 * @param index a number from 0 to substrateCount()-1. substrates are ordered by their ids
+	 * @return the id of the substrate with the given index
+	 */
+	public int substrateId(int index) {
+		return substrateIds[index];
+	}
+
+	/**
+	 * @param index a number from 0 to substrateCount()-1. substrates are ordered by their ids
+	 * @return the stoichiometry of the substrate with the given index
+	 */
+	public int substrateStoichiometry(int index) {
+		return substrateStoichiometries[index];
 	}
 
 	/**
@@ -103,7 +237,7 @@ public class Reaction extends Component {
 	 * @throws SQLException
 	 */
 	public boolean firesForwardIn(Compartment compartment) {
-		return directions(compartment.id()) >= 0;
+		return (compartment.directionBits(this) & FORWARD_BIT) != 0;
 	}
 
 	/**
@@ -114,7 +248,7 @@ public class Reaction extends Component {
 	 * @throws SQLException
 	 */
 	public boolean firesBackwardIn(Compartment compartment) {
-		return directions(compartment.id()) <= 0;
+		return (compartment.directionBits(this) & BACKWARD_BIT) != 0;
 	}
 
 	/**
@@ -122,10 +256,29 @@ public class Reaction extends Component {
 	 * 
 	 * @param cid the id of the compartment of interest
 	 * @return 1, if the reaction may fire only forward, -1 if it may only fire backward and 0 if its bidirectional in the compartment of interest
-	 * @throws SQLException
+	 * @throws NoSuchElementException if no direction is known for the compartment
 	 */
 	protected byte directions(int cid) {
-		return directions.get(cid);
+		int i = Arrays.binarySearch(directionCompartments, cid);
+		if (i < 0) throw new NoSuchElementException("no direction of reaction " + id() + " known for compartment " + cid);
+		return directions[i];
+	}
+
+	/**
+	 * @param cid the id of the compartment of interest
+	 * @return FORWARD_BIT and/or BACKWARD_BIT for the directions enabled in the compartment, 0 if no direction is known for the compartment
+	 */
+	int directionBits(int cid) {
+		int i = Arrays.binarySearch(directionCompartments, cid);
+		if (i < 0) return 0;
+		return ((directions[i] >= 0) ? FORWARD_BIT : 0) | ((directions[i] <= 0) ? BACKWARD_BIT : 0);
+	}
+
+	/**
+	 * @return the dense index of this reaction: reactions are numbered in the order of their creation
+	 */
+	int index() {
+		return index;
 	}
 	
 	/**
@@ -134,29 +287,18 @@ public class Reaction extends Component {
 	 * @throws DataFormatException 
 	 */
 	public boolean isBalanced() throws DataFormatException{
-		Formula substrateSum=null;
-		for (Iterator<Entry<Integer, Integer>> sit = substrates.entrySet().iterator(); sit.hasNext();){
-			Entry<Integer, Integer> entry = sit.next();
-			Formula f = Substance.get(entry.getKey()).formula();
-			int stoich=entry.getValue();
+		FormulaAccumulator balance=new FormulaAccumulator(); // substrates - products
+		for (int i=0; i<substrateIds.length; i++){
+			Formula f = Substance.get(substrateIds[i]).formula();
 			if (f==null) throw new NullPointerException();
-			f=f.multiply(stoich);
-			if (substrateSum==null) {
-				substrateSum=f;
-			} else substrateSum.add(f);
+			balance.add(f, substrateStoichiometries[i]);
 		}
-		Formula productSum=null;
-		for (Iterator<Entry<Integer, Integer>> sit = products.entrySet().iterator(); sit.hasNext();){
-			Entry<Integer, Integer> entry = sit.next();
-			Formula f = Substance.get(entry.getKey()).formula();
-			int stoich=entry.getValue();
+		for (int i=0; i<productIds.length; i++){
+			Formula f = Substance.get(productIds[i]).formula();
 			if (f==null) throw new NullPointerException();
-			f=f.multiply(stoich);
-			if (productSum==null) {
-				productSum=f;
-			} else productSum.add(f);
+			balance.add(f, -productStoichiometries[i]);
 		}
-		return productSum.equals(substrateSum);
+		return balance.isEmpty();
 	}
 	
 	/**
@@ -172,45 +314,89 @@ public class Reaction extends Component {
 	 * add the given products to the product list of this reaction
 	 * @param p the products with their stoichiometries
 	 */
-	public void addProducts(TreeMap<Integer, Integer> p) {
+	public void addProducts(Map<Integer, Integer> p) {
 		if (p==null) return;
-		if (products==null) products=new TreeMap<Integer, Integer>();
-		products.putAll(p);	  
+		int[][] merged=merge(productIds, productStoichiometries, p);
+		productIds=merged[0];
+		productStoichiometries=merged[1];
+		modifications.incrementAndGet();	  
   }
 
 	/**
 	 * add the given substrates to the substrate list of this reaction
 	 * @param s the substrates with their stoichiometries
 	 */
-	public void addSubstrates(TreeMap<Integer, Integer> s) {
+	public void addSubstrates(Map<Integer, Integer> s) {
 		if (s==null) return;
-		if (substrates==null) substrates=new TreeMap<Integer, Integer>();
-		substrates.putAll(s);	  
+		int[][] merged=merge(substrateIds, substrateStoichiometries, s);
+		substrateIds=merged[0];
+		substrateStoichiometries=merged[1];
+		modifications.incrementAndGet();	  
   }
 
+	/**
+	 * merges a map of stoichiometries into sorted stoichiometry arrays. entries of the map replace entries of the arrays with the same substance id
+	 * @return the merged id and stoichiometry arrays
+	 */
+	private static int[][] merge(int[] ids, int[] stoichiometries, Map<Integer, Integer> additions) {
+		int[] addedIds=new int[additions.size()];
+		int[] addedStoichiometries=new int[addedIds.length];
+		int n=0;
+		for (Entry<Integer, Integer> entry:new TreeMap<Integer, Integer>(additions).entrySet()){
+			addedIds[n]=entry.getKey();
+			addedStoichiometries[n++]=entry.getValue();
+		}
+		int[] mergedIds=new int[ids.length+n];
+		int[] mergedStoichiometries=new int[mergedIds.length];
+		int i=0, j=0, k=0;
+		while (i<ids.length || j<n){
+			if (j==n || (i<ids.length && ids[i]<addedIds[j])){
+				mergedIds[k]=ids[i];
+				mergedStoichiometries[k++]=stoichiometries[i++];
+			} else {
+				if (i<ids.length && ids[i]==addedIds[j]) i++; // replaced
+				mergedIds[k]=addedIds[j];
+				mergedStoichiometries[k++]=addedStoichiometries[j++];
+			}
+		}
+		return new int[][]{Arrays.copyOf(mergedIds, k), Arrays.copyOf(mergedStoichiometries, k)};
+	}
+
 	public void addDirection(int cid, Byte b) {
 	  if (b==null) return;
-	  if (directions==null) directions=new TreeMap<Integer, Byte>();
-	  directions.put(cid, b);
+	  int index=Arrays.binarySearch(directionCompartments, cid);
+	  if (index<0) {
+	  	index=-index-1;
+	  	int n=directionCompartments.length;
+	  	int[] compartments=new int[n+1];
+	  	byte[] dirs=new byte[n+1];
+	  	System.arraycopy(directionCompartments, 0, compartments, 0, index);
+	  	System.arraycopy(directions, 0, dirs, 0, index);
+	  	System.arraycopy(directionCompartments, index, compartments, index+1, n-index);
+	  	System.arraycopy(directions, index, dirs, index+1, n-index);
+	  	compartments[index]=cid;
+	  	directionCompartments=compartments;
+	  	directions=dirs;
+	  }
+	  directions[index]=b;
+	  Component compartment=Component.get(cid);
+	  if (compartment instanceof Compartment) ((Compartment) compartment).setDirectionBits(this.index, directionBits(cid));
+	  modifications.incrementAndGet();
   }
 	
 	public boolean hasUnchangedSubstances() {
-		boolean isMagic = false;
-		Map<Integer, Integer> prods = products();
-		for (Iterator<Entry<Integer, Integer>> subs = substrates().entrySet().iterator(); subs.hasNext();) {
-			Entry<Integer, Integer> subsEntry = subs.next();
-			int subst = subsEntry.getKey();
-			int consumption = subsEntry.getValue();
-
-			if (prods.containsKey(subst)) {
-				int production = prods.get(subst);
-				if (production == consumption) {
-					isMagic = true;
-					return isMagic;
-				}
+		for (int i=0, j=0; i<substrateIds.length && j<productIds.length;) { // both arrays are sorted
+			if (substrateIds[i]<productIds[j]) {
+				i++;
+			} else if (substrateIds[i]>productIds[j]) {
+				j++;
+			} else {
+				if (substrateStoichiometries[i]==productStoichiometries[j]) return true;
+				i++;
+				j++;
 			}
 		}
-		return isMagic;
+		return false;
 	}
 	
 	/**
@@ -0,0 +1,411 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * compiled, immutable form of a reaction set within a certain compartment, used for scope (network expansion)
+ * calculations. substances are numbered densely (ordered by id), and every direction in which a reaction may fire in the
+ * compartment becomes a separate directed reaction with its own input (substrate) and output (product) lists. additionally
+ * the directed reactions consuming each substance are indexed, so the closure can be calculated with a worklist in time
+ * linear in the size of the network.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class ReactionNetwork {
+
+	private final int compartmentId;
+	final int version; // modification count of the reactions at compile time, see Reaction.version()
+	private final int[] substances; // sorted substance ids, the position is the substance index
+	private final int[] reactions; // reactions[d] is the id of the reaction underlying directed reaction d
+	private final boolean[] backward; // backward[d] is set, if directed reaction d is a reaction firing backward
+	final int[] inputStart, inputs; // the inputs of directed reaction d are inputs[inputStart[d]..inputStart[d+1]-1]
+	final int[] outputStart, outputs; // the outputs of directed reaction d are outputs[outputStart[d]..outputStart[d+1]-1]
+	final int[] consumerStart, consumers; // the directed reactions with substance s as input are consumers[consumerStart[s]..consumerStart[s+1]-1]
+
+	/**
+	 * compiles the given reactions for the given compartment
+	 *
+	 * @param reactionSet the reactions of interest
+	 * @param compartment the compartment, which determines the directions of the reactions
+	 */
+	public ReactionNetwork(ReactionSet reactionSet, Compartment compartment) {
+		this(new ReactionSet[] { reactionSet }, new Compartment[] { compartment });
+	}
+
+	/**
+	 * compiles the union of several reaction sets. reactions occuring in more than one set are taken from the first one
+	 *
+	 * @param reactionSets the reactions of interest
+	 * @param compartments the compartments, which determine the directions of the reactions of the respective sets. the
+	 *          network belongs to the first compartment, which must not be null. the reactions of a set without compartment
+	 *          are taken as reversible
+	 */
+	ReactionNetwork(ReactionSet[] reactionSets, Compartment[] compartments) {
+		compartmentId = compartments[0].id();
+		version = Reaction.version();
+
+		// collect reactions, directions and substances
+		int total = 0;
+		for (ReactionSet reactionSet : reactionSets)
+			total += reactionSet.size();
+		Reaction[] rs = new Reaction[total];
+		int[] rd = new int[total]; // the directions of rs[i]: Reaction.FORWARD_BIT and/or Reaction.BACKWARD_BIT
+		int reactionCount = 0, directions = 0, size = 0;
+		int[] ids = new int[16];
+		for (int set = 0; set < reactionSets.length; set++) {
+			for (Integer rid : reactionSets[set]) {
+				boolean known = false;
+				for (int earlier = 0; earlier < set; earlier++)
+					if (reactionSets[earlier].contains(rid)) known = true;
+				if (known) continue;
+				Reaction reaction = Reaction.get(rid);
+				Compartment compartment = compartments[set];
+				int bits = (compartment == null) ? Reaction.FORWARD_BIT | Reaction.BACKWARD_BIT : compartment.directionBits(reaction);
+				rs[reactionCount] = reaction;
+				rd[reactionCount++] = bits;
+				if ((bits & Reaction.FORWARD_BIT) != 0) directions++;
+				if ((bits & Reaction.BACKWARD_BIT) != 0) directions++;
+				if (size + reaction.substrateCount() + reaction.productCount() > ids.length) ids = Arrays.copyOf(ids, 2 * (size + reaction.substrateCount() + reaction.productCount()));
+				for (int i = 0; i < reaction.substrateCount(); i++)
+					ids[size++] = reaction.substrateId(i);
+				for (int i = 0; i < reaction.productCount(); i++)
+					ids[size++] = reaction.productId(i);
+			}
+		}
+		Arrays.sort(ids, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++)
+			if (distinct == 0 || ids[i] != ids[distinct - 1]) ids[distinct++] = ids[i];
+		substances = Arrays.copyOf(ids, distinct);
+
+		// build input and output lists of the directed reactions
+		reactions = new int[directions];
+		backward = new boolean[directions];
+		inputStart = new int[directions + 1];
+		outputStart = new int[directions + 1];
+		int[] in = new int[16], out = new int[16];
+		int inSize = 0, outSize = 0, d = 0;
+		for (int r = 0; r < reactionCount; r++) {
+			Reaction reaction = rs[r];
+			for (int dir = 0; dir < 2; dir++) {
+				boolean back = (dir == 1);
+				if ((rd[r] & (back ? Reaction.BACKWARD_BIT : Reaction.FORWARD_BIT)) == 0) continue;
+				reactions[d] = reaction.id();
+				backward[d] = back;
+				int from = back ? reaction.productCount() : reaction.substrateCount();
+				int to = back ? reaction.substrateCount() : reaction.productCount();
+				if (inSize + from > in.length) in = Arrays.copyOf(in, 2 * (inSize + from));
+				for (int i = 0; i < from; i++)
+					in[inSize++] = indexOf(back ? reaction.productId(i) : reaction.substrateId(i));
+				if (outSize + to > out.length) out = Arrays.copyOf(out, 2 * (outSize + to));
+				for (int i = 0; i < to; i++)
+					out[outSize++] = indexOf(back ? reaction.substrateId(i) : reaction.productId(i));
+				d++;
+				inputStart[d] = inSize;
+				outputStart[d] = outSize;
+			}
+		}
+		inputs = Arrays.copyOf(in, inSize);
+		outputs = Arrays.copyOf(out, outSize);
+
+		// index the consumers of every substance
+		consumerStart = new int[distinct + 1];
+		for (int i = 0; i < inSize; i++)
+			consumerStart[inputs[i] + 1]++;
+		for (int s = 0; s < distinct; s++)
+			consumerStart[s + 1] += consumerStart[s];
+		consumers = new int[inSize];
+		int[] fill = Arrays.copyOf(consumerStart, distinct);
+		for (d = 0; d < directions; d++) {
+			for (int i = inputStart[d]; i < inputStart[d + 1]; i++)
+				consumers[fill[inputs[i]]++] = d;
+		}
+	}
+
+	/**
+	 * @return the id of the compartment this network was compiled for
+	 */
+	public int compartmentId() {
+		return compartmentId;
+	}
+
+	/**
+	 * @return the number of substances occuring in the network
+	 */
+	public int substanceCount() {
+		return substances.length;
+	}
+
+	/**
+	 * @param index the index of a substance, has to be smaller than substanceCount()
+	 * @return the id of the substance
+	 */
+	public int substance(int index) {
+		return substances[index];
+	}
+
+	/**
+	 * @param substanceId the id of a substance
+	 * @return the index of the substance within this network, -1 if the substance does not occur in the network
+	 */
+	public int indexOf(int substanceId) {
+		int index = Arrays.binarySearch(substances, substanceId);
+		return (index < 0) ? -1 : index;
+	}
+
+	/**
+	 * @return the number of directed reactions, i.e. the number of (reaction, direction) pairs enabled in the compartment
+	 */
+	public int directionCount() {
+		return reactions.length;
+	}
+
+	/**
+	 * @param direction the index of a directed reaction, has to be smaller than directionCount()
+	 * @return the id of the reaction underlying the directed reaction
+	 */
+	public int reaction(int direction) {
+		return reactions[direction];
+	}
+
+	/**
+	 * @param direction the index of a directed reaction, has to be smaller than directionCount()
+	 * @return true, if the directed reaction is a backward firing reaction
+	 */
+	public boolean isBackward(int direction) {
+		return backward[direction];
+	}
+
+	/**
+	 * converts substance ids to substance indices. ids of substances not occuring in the network are skipped
+	 *
+	 * @param substanceIds the substance ids
+	 * @return the indices of the substances, which occur in the network
+	 */
+	int[] indicesOf(Collection<Integer> substanceIds) {
+		int[] result = new int[substanceIds.size()];
+		int size = 0;
+		for (Integer sid : substanceIds) {
+			int index = indexOf(sid);
+			if (index >= 0) result[size++] = index;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * calculates the closure (scope) of the given seed substances: the set of all substances producible from the seeds
+	 * using the reactions of this network. every directed reaction is visited at most once: it keeps a counter of missing
+	 * inputs, which is decreased whenever one of its inputs becomes available, and fires when the counter reaches zero.
+	 *
+	 * @param available the substance indices available in advance; substances added by the closure are set in this array
+	 * @param queue working space of at least substanceCount() entries. afterwards it holds the available substances
+	 * @param missing working space of at least directionCount() entries. afterwards it holds the number of unavailable
+	 *          inputs of every directed reaction, so the directions with missing[d] == 0 are those, which have fired
+	 * @param blocked directed reactions, which must not fire (knocked out), may be null
+	 * @return the number of substances set in available
+	 */
+	int closure(boolean[] available, int[] queue, int[] missing, boolean[] blocked) {
+		return closure(available, queue, missing, blocked, null, null);
+	}
+
+	/**
+	 * calculates the closure like {@link #closure(boolean[], int[], int[], boolean[])} and additionally records the network
+	 * expansion trajectory: the seeds belong to generation 0, a directed reaction fires in the generation following the
+	 * latest generation of its inputs and its outputs belong to the generation of their first producer. since the queue is
+	 * processed first in, first out, substances are handled in the order of their generations, so the generations are final
+	 * when they are assigned.
+	 *
+	 * @param substanceGeneration if not null, receives the generation of every available substance
+	 * @param directionGeneration if not null, receives the generation of every fired directed reaction, -1 for all others
+	 */
+	int closure(boolean[] available, int[] queue, int[] missing, boolean[] blocked, int[] substanceGeneration, int[] directionGeneration) {
+		int head = 0, tail = 0;
+		for (int s = 0; s < available.length; s++) {
+			if (available[s]) {
+				queue[tail++] = s;
+				if (substanceGeneration != null) substanceGeneration[s] = 0;
+			}
+		}
+		if (directionGeneration != null) Arrays.fill(directionGeneration, -1);
+		for (int d = 0; d < reactions.length; d++) {
+			missing[d] = inputStart[d + 1] - inputStart[d];
+			if (missing[d] == 0 && (blocked == null || !blocked[d])) tail = fire(d, 1, available, queue, tail, substanceGeneration, directionGeneration);
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			for (int i = consumerStart[s]; i < consumerStart[s + 1]; i++) {
+				int d = consumers[i];
+				if (--missing[d] == 0 && (blocked == null || !blocked[d])) {
+					int generation = (substanceGeneration == null) ? 0 : substanceGeneration[s] + 1; // s is the latest input of d
+					tail = fire(d, generation, available, queue, tail, substanceGeneration, directionGeneration);
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * marks the outputs of the given directed reaction as available and appends the new ones to the queue
+	 *
+	 * @return the new end of the queue
+	 */
+	private int fire(int d, int generation, boolean[] available, int[] queue, int tail, int[] substanceGeneration, int[] directionGeneration) {
+		if (directionGeneration != null) directionGeneration[d] = generation;
+		for (int i = outputStart[d]; i < outputStart[d + 1]; i++) {
+			int s = outputs[i];
+			if (!available[s]) {
+				available[s] = true;
+				queue[tail++] = s;
+				if (substanceGeneration != null) substanceGeneration[s] = generation;
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * calculates the set of substances which can be produced from the given substances
+	 *
+	 * @param substanceIds the set of input substances
+	 * @return the input substances together with all substances which may be formed from them
+	 */
+	public IdSet calculateProductsOf(Collection<Integer> substanceIds) {
+		boolean[] available = new boolean[substances.length];
+		for (int s : indicesOf(substanceIds))
+			available[s] = true;
+		int[] queue = new int[substances.length];
+		int count = closure(available, queue, new int[reactions.length], null);
+		IdSet result = new IdSet(substanceIds);
+		for (int i = 0; i < count; i++)
+			result.add(substances[queue[i]]);
+		return result;
+	}
+
+	/**
+	 * calculates the network expansion trajectory of the given seeds in a single pass of the closure
+	 *
+	 * @param substanceIds the seed substances
+	 * @return the generations, in which the substances and reactions become reachable
+	 */
+	public Trajectory trajectory(Collection<Integer> substanceIds) {
+		boolean[] available = new boolean[substances.length];
+		for (int s : indicesOf(substanceIds))
+			available[s] = true;
+		int[] substanceGeneration = new int[substances.length];
+		int[] directionGeneration = new int[reactions.length];
+		closure(available, new int[substances.length], new int[reactions.length], null, substanceGeneration, directionGeneration);
+		for (int s = 0; s < substances.length; s++)
+			if (!available[s]) substanceGeneration[s] = -1;
+		return new Trajectory(substances, substanceGeneration, substanceIds, reactions, directionGeneration);
+	}
+
+	/**
+	 * determines for every reaction, which target substances are lost from the scope of the given seeds, if the reaction is
+	 * knocked out. reactions, which do not fire in the unperturbed scope or whose products are all seeds, can not cause
+	 * losses and are skipped. the remaining knockouts are calculated in parallel.
+	 *
+	 * @param substanceIds the seed substances
+	 * @param targetIds the target substances of interest
+	 * @param threads the number of threads to use
+	 * @return mapping from the ids of the reactions, whose knockout causes losses, to the lost targets
+	 * @throws InterruptedException
+	 */
+	public TreeMap<Integer, TreeSet<Integer>> essentialReactions(Collection<Integer> substanceIds, Collection<Integer> targetIds, int threads) throws InterruptedException {
+		final boolean[] seeds = new boolean[substances.length];
+		for (int s : indicesOf(substanceIds))
+			seeds[s] = true;
+
+		// unperturbed scope
+		boolean[] available = seeds.clone();
+		int[] missing = new int[reactions.length];
+		closure(available, new int[substances.length], missing, null);
+		int[] reached = new int[targetIds.size()]; // targets in the unperturbed scope, which are no seeds
+		int targetCount = 0;
+		for (int t : indicesOf(targetIds))
+			if (available[t] && !seeds[t]) reached[targetCount++] = t;
+		final int[] targets = Arrays.copyOf(reached, targetCount);
+
+		// candidates: fired reactions with products which are no seeds. the directions of a reaction are adjacent
+		final int[] candidates = new int[reactions.length]; // first direction of every candidate reaction
+		int candidateCount = 0;
+		if (targets.length > 0) {
+			for (int d = 0; d < reactions.length; d++) {
+				if (d > 0 && reactions[d] == reactions[d - 1]) continue;
+				for (int e = d; e < reactions.length && reactions[e] == reactions[d]; e++) {
+					if (missing[e] == 0 && !onlySeeds(e, seeds)) {
+						candidates[candidateCount++] = d;
+						break;
+					}
+				}
+			}
+		}
+
+		final TreeMap<Integer, TreeSet<Integer>> result = new TreeMap<Integer, TreeSet<Integer>>();
+		final int total = candidateCount;
+		int tasks = Math.max(1, Math.min(threads, total));
+		ExecutorService pool = Executors.newFixedThreadPool(tasks);
+		try {
+			LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
+			for (int t = 0; t < tasks; t++) {
+				final int first = t, step = tasks;
+				pending.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						boolean[] available = new boolean[substances.length];
+						int[] queue = new int[substances.length];
+						int[] missing = new int[reactions.length];
+						boolean[] blocked = new boolean[reactions.length];
+						for (int c = first; c < total; c += step) {
+							int d = candidates[c];
+							int end = d;
+							while (end < reactions.length && reactions[end] == reactions[d])
+								blocked[end++] = true;
+							System.arraycopy(seeds, 0, available, 0, seeds.length);
+							closure(available, queue, missing, blocked);
+							TreeSet<Integer> lost = null;
+							for (int target : targets) {
+								if (available[target]) continue;
+								if (lost == null) lost = new TreeSet<Integer>();
+								lost.add(substances[target]);
+							}
+							if (lost != null) {
+								synchronized (result) {
+									result.put(reactions[d], lost);
+								}
+							}
+							Arrays.fill(blocked, d, end, false);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : pending) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * @return true, if all outputs of the directed reaction d are seeds
+	 */
+	private boolean onlySeeds(int d, boolean[] seeds) {
+		for (int i = outputStart[d]; i < outputStart[d + 1]; i++)
+			if (!seeds[outputs[i]]) return false;
+		return true;
+	}
+}
@@ -7,8 +7,6 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.TreeSet;
 
-import edu.fsuj.csb.tools.xml.ObjectComparator;
-
 /**
  * implements a set of reactions. has been separated from Compartment, since there shall be methods not only related to compartments
  * @author Stephan Richter
@@ -16,46 +14,80 @@ import edu.fsuj.csb.tools.xml.ObjectComparator;
  */
 public class ReactionSet implements Serializable,Iterable<Integer> {
 
-  private static final long serialVersionUID = 3743143615241167238L;
-	private TreeSet<Integer> reactions;
+  private static final long serialVersionUID = -5216098035541326703L;
+	private IdSet reactions;
+	private transient volatile ReactionNetwork network; // compiled form of this set, used for scope calculations
 	
 	/**
 	 * create a new reaction set
 	 */
 	public ReactionSet() {
-		reactions=new TreeSet<Integer>(ObjectComparator.get());
+		reactions=new IdSet();
   }
 	
 	/**
-	 * @return all the database ids of reactions belonging to this reaction set
+	 * @return all the database ids of reactions belonging to this reaction set, as read-only view (no copy). use clone() to obtain a modifiable copy
 	 */
-	public TreeSet<Integer> get() {
-	  TreeSet<Integer> result=new TreeSet<Integer>(ObjectComparator.get());
-	  result.addAll(reactions);
-		return result;
+	public IdSet get() {
+		return reactions.view();
   }
 	/**
 	 * add a singular reaction to this reaction set
 	 * @param reactionId the id of the reaction, that shall be added
 	 */
 	public void add(Integer reactionId) {
+		network=null;
 		reactions.add(reactionId);
   }
 	/**
 	 * adds a bunch of reactions to the reaction set
 	 * @param reactionIds the set of ids of the reactions to be added
 	 */
-	public void addAll(TreeSet<Integer> reactionIds) {
+	public void addAll(Collection<Integer> reactionIds) {
+		network=null;
 		reactions.addAll(reactionIds);
   }
 	
 	/**
-	 * calculates the set of substances which can be produced in the current compartment, when given a set of substances in excess
+	 * @return the number of reactions in this set
+	 */
+	public int size() {
+		return reactions.size();
+	}
+	
+	/**
+	 * provides the compiled form of this reaction set. the compiled network is cached and recompiled only if this set, the
+	 * compartment or any reaction (via its add methods) has changed in the meantime
+	 * @param compartment the compartment, which determines the directions of the reactions
+	 * @return the network of this reaction set within the given compartment
+	 */
+	public ReactionNetwork network(Compartment compartment) {
+		ReactionNetwork result=network;
+		if (result==null || result.compartmentId()!=compartment.id() || result.version!=Reaction.version()) {
+			result=new ReactionNetwork(this, compartment);
+			network=result;
+		}
+		return result;
+	}
+	
+	/**
+	 * calculates the set of substances which can be produced in the current compartment, when given a set of substances in excess.
+	 * uses the compiled network of this set, so every reaction direction is checked only once.
 	 * @param substanceIds the set of input substance
 	 * @return the set of substances which may be formed
 	 * @throws SQLException
 	 */
 	public Collection<Integer> calculateProductsOf(Collection<Integer> substanceIds,Compartment compartment) {
+		return network(compartment).calculateProductsOf(substanceIds);
+	}
+	
+	/**
+	 * calculates the set of substances which can be produced in the current compartment by repeated passes over all reactions,
+	 * until no more substances are added. this is the reference implementation of calculateProductsOf
+	 * @param substanceIds the set of input substance
+	 * @return the set of substances which may be formed
+	 */
+	Collection<Integer> calculateProductsByPasses(Collection<Integer> substanceIds,Compartment compartment) {
 		substanceIds = new TreeSet<Integer>(substanceIds);
 		int substanceNumber = 0;
 		do {
@@ -95,8 +127,8 @@ public class ReactionSet implements Serializable,Iterable<Integer> {
 	 * returns the set of substances, which occur in reactions that may proceed in this compartment (including spontaneous reactions)
 	 * @return a set of substance ids
 	 */
-	public TreeSet<Integer> utilizedSubstances() {
-		TreeSet<Integer> result = new TreeSet<Integer>();
+	public IdSet utilizedSubstances() {
+		IdSet result = new IdSet();
 
 		for (Iterator<Integer> reactionIterator = reactions.iterator(); reactionIterator.hasNext();) {
 			int rid=reactionIterator.next();
@@ -110,25 +142,58 @@ public class ReactionSet implements Serializable,Iterable<Integer> {
 		return result;
 	}
 	
+	/**
+	 * checks the mass balance of all reactions of this set at once
+	 * @return the balanced, unbalanced and unchecked reactions together with the element residuals of the unbalanced ones
+	 */
+	public BalanceAudit auditBalance() {
+		return new BalanceAudit(this);
+	}
+	
+	/**
+	 * builds the sparse stoichiometric matrix of this set. ids of reactions, which have not been loaded, are left out
+	 * @param compartment the compartment determining the directions of the reactions, may be null if split is not set
+	 * @param split if set, reversible reactions are split into forward and backward columns
+	 * @return the matrix in CSR and CSC form together with the mappings of its rows and columns to substance and reaction ids
+	 */
+	public StoichiometricMatrix stoichiometricMatrix(Compartment compartment, boolean split) {
+		return new StoichiometricMatrix(this, compartment, split);
+	}
+	
 	public String toString() {
 	  return reactions.toString();
 	}
 
 	public void addAll(ReactionSet reactions) {
-		addAll(reactions.get());
+		addAll(reactions.reactions);
   }
 
 	public Iterator<Integer> iterator() {
-	  return reactions.iterator();
+		final Iterator<Integer> it=reactions.iterator();
+		return new Iterator<Integer>() { // removing via the iterator has to drop the compiled network as well
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public Integer next() {
+				return it.next();
+			}
+
+			public void remove() {
+				network=null;
+				it.remove();
+			}
+		};
   }
 	
 	public ReactionSet clone() {		
 	  ReactionSet result=new ReactionSet();
-	  result.addAll(reactions);
+	  result.reactions=reactions.clone();
 		return result;
 	}
 
 	public void removeAll(ReactionSet rs) {
+		network=null;
 		this.reactions.removeAll(rs.reactions);
   }
 
@@ -137,6 +202,7 @@ public class ReactionSet implements Serializable,Iterable<Integer> {
   }
 
 	public void clear() {
+		network=null;
 		reactions.clear();	  
   }
 }
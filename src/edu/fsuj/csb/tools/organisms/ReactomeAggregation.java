@@ -0,0 +1,234 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * aggregates the reaction sets of many compartments (organisms): for every reaction the number of compartments containing
+ * it, from which the pan-reactome (reactions of any compartment) and the core-reactome (reactions present in a given
+ * fraction of the compartments) follow. optionally, the compartments are grouped (e.g. by clade) and every group is
+ * aggregated on its own.
+ *
+ * the reactions get dense indices, so the counts are held in int arrays. the compartments are split into chunks, which are
+ * counted in parallel; the partial counts of the chunks are added up afterwards.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class ReactomeAggregation {
+
+	/**
+	 * the aggregated reaction sets of a group of compartments
+	 */
+	public static class Result {
+		private final int[] reactionIds; // sorted, shared by all results of an aggregation
+		private final int[] counts;
+		private final int size;
+
+		private Result(int[] reactionIds, int[] counts, int size) {
+			this.reactionIds = reactionIds;
+			this.counts = counts;
+			this.size = size;
+		}
+
+		/**
+		 * @return the number of compartments aggregated
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @param reactionId the id of a reaction
+		 * @return the number of compartments containing the reaction
+		 */
+		public int count(int reactionId) {
+			int index = Arrays.binarySearch(reactionIds, reactionId);
+			return (index < 0) ? 0 : counts[index];
+		}
+
+		/**
+		 * @param reactionId the id of a reaction
+		 * @return the fraction of the compartments containing the reaction
+		 */
+		public double frequency(int reactionId) {
+			return (size == 0) ? 0 : (double) count(reactionId) / size;
+		}
+
+		/**
+		 * @return the reactions occuring in any of the compartments
+		 */
+		public IdSet pan() {
+			return atLeast(1);
+		}
+
+		/**
+		 * @param fraction a fraction of the compartments, e.g. 0.95
+		 * @return the reactions occuring in at least the given fraction of the compartments
+		 */
+		public IdSet core(double fraction) {
+			if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("fraction has to be within [0,1], found " + fraction);
+			return atLeast(Math.max(1, (int) Math.ceil(fraction * size - 1e-9)));
+		}
+
+		/**
+		 * @param count a number of compartments
+		 * @return the reactions occuring in at least the given number of compartments
+		 */
+		public IdSet atLeast(int count) {
+			IdSet result = new IdSet();
+			for (int r = 0; r < counts.length; r++)
+				if (counts[r] >= count) result.add(reactionIds[r]);
+			return result;
+		}
+
+		/**
+		 * @return histogram[k] is the number of reactions contained in exactly k compartments
+		 */
+		public int[] histogram() {
+			int[] result = new int[size + 1];
+			for (int count : counts)
+				result[count]++;
+			return result;
+		}
+
+		public String toString() {
+			return "reactome of " + size + " compartments: " + pan().size() + " reactions";
+		}
+	}
+
+	private final Compartment[] compartments;
+	private final int[] reactionIds; // all reactions, sorted; their positions are the dense indices
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param compartments the compartments to be aggregated
+	 */
+	public ReactomeAggregation(Collection<Compartment> compartments) {
+		this.compartments = compartments.toArray(new Compartment[compartments.size()]);
+		IdSet all = new IdSet();
+		for (Compartment compartment : compartments)
+			all.addAll(compartment.reactions().get());
+		reactionIds = all.toIntArray();
+	}
+
+	/**
+	 * @param threads the number of threads used, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * aggregates all compartments
+	 *
+	 * @return the reaction counts over all compartments
+	 * @throws InterruptedException
+	 */
+	public Result aggregate() throws InterruptedException {
+		int[] group = new int[compartments.length];
+		return count(group, 1)[0];
+	}
+
+	/**
+	 * aggregates the compartments group by group
+	 *
+	 * @param groups maps compartment ids to the names of their groups (e.g. clades). compartments without group are skipped
+	 * @return the reaction counts of every group
+	 * @throws InterruptedException
+	 */
+	public TreeMap<String, Result> aggregate(Map<Integer, String> groups) throws InterruptedException {
+		TreeMap<String, Integer> names = new TreeMap<String, Integer>();
+		for (String name : groups.values())
+			if (name != null) names.put(name, 0);
+		String[] order = names.keySet().toArray(new String[names.size()]);
+		for (int g = 0; g < order.length; g++)
+			names.put(order[g], g);
+		int[] group = new int[compartments.length];
+		for (int i = 0; i < compartments.length; i++) {
+			String name = groups.get(compartments[i].id());
+			group[i] = (name == null) ? -1 : names.get(name);
+		}
+		Result[] results = count(group, order.length);
+		TreeMap<String, Result> result = new TreeMap<String, Result>();
+		for (int g = 0; g < order.length; g++)
+			result.put(order[g], results[g]);
+		return result;
+	}
+
+	/**
+	 * counts the reactions of every group
+	 *
+	 * @param group the group index of every compartment, -1 for compartments to be skipped
+	 * @param groupCount the number of groups
+	 */
+	private Result[] count(int[] group, int groupCount) throws InterruptedException {
+		int[][] counts = new int[groupCount][reactionIds.length];
+		int[] sizes = new int[groupCount];
+		for (int g : group)
+			if (g >= 0) sizes[g]++;
+		final int[] order = new int[compartments.length]; // compartment indices sorted by group
+		int[] offset = new int[groupCount + 1];
+		for (int g = 0; g < groupCount; g++)
+			offset[g + 1] = offset[g] + sizes[g];
+		int[] position = offset.clone();
+		for (int i = 0; i < group.length; i++)
+			if (group[i] >= 0) order[position[group[i]]++] = i;
+
+		LinkedList<Callable<int[]>> tasks = new LinkedList<Callable<int[]>>();
+		LinkedList<Integer> taskGroups = new LinkedList<Integer>();
+		int chunk = Math.max(1, offset[groupCount] / (4 * threads));
+		for (int g = 0; g < groupCount; g++) {
+			for (int start = offset[g]; start < offset[g + 1]; start += chunk) {
+				final int first = start, last = Math.min(start + chunk, offset[g + 1]);
+				taskGroups.add(g);
+				tasks.add(new Callable<int[]>() {
+					public int[] call() {
+						int[] partial = new int[reactionIds.length];
+						for (int k = first; k < last; k++) {
+							int r = 0;
+							for (int rid : compartments[order[k]].reactions().get().toIntArray()) { // both lists are sorted
+								r = Arrays.binarySearch(reactionIds, r, reactionIds.length, rid);
+								partial[r]++;
+							}
+						}
+						return partial;
+					}
+				});
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<int[]>> pending = new LinkedList<Future<int[]>>();
+			while (!tasks.isEmpty() || !pending.isEmpty()) {
+				while (!tasks.isEmpty() && pending.size() < 2 * threads) // limits the number of partial counts held at once
+					pending.add(pool.submit(tasks.removeFirst()));
+				int[] partial;
+				try {
+					partial = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				int[] total = counts[taskGroups.removeFirst()];
+				for (int r = 0; r < partial.length; r++)
+					total[r] += partial[r];
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		Result[] result = new Result[groupCount];
+		for (int g = 0; g < groupCount; g++)
+			result[g] = new Result(reactionIds, counts[g], sizes[g]);
+		return result;
+	}
+}
@@ -0,0 +1,483 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * similarity of the reaction repertoires of compartments (organisms). all reactions occuring in any of the compartments
+ * get dense indices, so that every reaction set can be held as bitset (for exact comparisons) or reduced to a MinHash
+ * signature (for approximate comparisons).
+ *
+ * exact similarities are calculated for all pairs, using tiles of compartments, which are distributed over a thread pool.
+ * for large numbers of compartments, locality sensitive hashing over the MinHash signatures yields the pairs of similar
+ * compartments without looking at all pairs. in both cases the pairs are handed to a {@link PairConsumer} (e.g. a
+ * {@link TsvWriter} or {@link BinaryWriter}) in a deterministic order, while the calculation proceeds.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class ReactomeSimilarity {
+
+	/**
+	 * jaccard index: |A and B| / |A or B|, reported once per pair
+	 */
+	public static final int JACCARD = 0;
+	/**
+	 * containment of A in B: |A and B| / |A|, reported for both orders of a pair
+	 */
+	public static final int CONTAINMENT = 1;
+
+	/**
+	 * receives the similarities of pairs of compartments
+	 */
+	public interface PairConsumer {
+		/**
+		 * @param first the id of the first compartment
+		 * @param second the id of the second compartment
+		 * @param similarity the similarity of the first compartment to the second one
+		 * @throws IOException
+		 */
+		public void pair(int first, int second, float similarity) throws IOException;
+	}
+
+	/**
+	 * writes pairs as lines of tab separated values: first compartment id, second compartment id, similarity
+	 */
+	public static class TsvWriter implements PairConsumer, Closeable {
+		private final BufferedWriter writer;
+
+		/**
+		 * @param file the file to be written
+		 * @throws IOException
+		 */
+		public TsvWriter(File file) throws IOException {
+			writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+		}
+
+		public void pair(int first, int second, float similarity) throws IOException {
+			writer.write(Integer.toString(first));
+			writer.write('\t');
+			writer.write(Integer.toString(second));
+			writer.write('\t');
+			writer.write(Float.toString(similarity));
+			writer.write('\n');
+		}
+
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * writes pairs as records of 12 bytes (big endian): first compartment id (int), second compartment id (int), similarity
+	 * (float)
+	 */
+	public static class BinaryWriter implements PairConsumer, Closeable {
+		private final DataOutputStream output;
+
+		/**
+		 * @param file the file to be written
+		 * @throws IOException
+		 */
+		public BinaryWriter(File file) throws IOException {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		public void pair(int first, int second, float similarity) throws IOException {
+			output.writeInt(first);
+			output.writeInt(second);
+			output.writeFloat(similarity);
+		}
+
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+
+	private final int[] ids; // compartment ids
+	private final int[][] members; // dense reaction indices of every compartment, sorted
+	private final int reactionCount;
+	private long[][] bits; // bitsets of the compartments, created on demand
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int tileSize = 256;
+	private long seed = 0;
+
+	/**
+	 * @param compartments the compartments to be compared
+	 */
+	public ReactomeSimilarity(Collection<Compartment> compartments) {
+		ids = new int[compartments.size()];
+		IdSet all = new IdSet();
+		int i = 0;
+		for (Compartment compartment : compartments) {
+			ids[i++] = compartment.id();
+			all.addAll(compartment.reactions().get());
+		}
+		int[] reactions = all.toIntArray();
+		reactionCount = reactions.length;
+		members = new int[ids.length][];
+		i = 0;
+		for (Compartment compartment : compartments) {
+			IdSet rs = compartment.reactions().get();
+			int[] m = new int[rs.size()];
+			int k = 0, r = 0;
+			for (int rid : rs.toIntArray()) { // both lists are sorted
+				r = Arrays.binarySearch(reactions, r, reactions.length, rid);
+				m[k++] = r;
+			}
+			members[i++] = m;
+		}
+	}
+
+	/**
+	 * @param threads the number of threads used, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("number of threads has to be positive, found " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param tileSize the number of compartments per side of the tiles, which are compared by one task. defaults to 256
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1) throw new IllegalArgumentException("tile size has to be positive, found " + tileSize);
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @param seed the seed for the hash functions of the MinHash signatures
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of compartments compared
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return the number of distinct reactions of all compartments
+	 */
+	public int reactionCount() {
+		return reactionCount;
+	}
+
+	private static void checkMeasure(int measure) {
+		if (measure != JACCARD && measure != CONTAINMENT) throw new IllegalArgumentException("unknown similarity measure: " + measure);
+	}
+
+	/**
+	 * pairs found by one task: indices of the compartments and similarities
+	 */
+	private static class Pairs {
+		int[] first = new int[64], second = new int[64];
+		float[] similarity = new float[64];
+		int count;
+
+		void add(int i, int j, float value) {
+			if (count == first.length) {
+				first = Arrays.copyOf(first, 2 * count);
+				second = Arrays.copyOf(second, 2 * count);
+				similarity = Arrays.copyOf(similarity, 2 * count);
+			}
+			first[count] = i;
+			second[count] = j;
+			similarity[count++] = value;
+		}
+
+		/**
+		 * adds the pair (or both ordered pairs for containment), if the similarity reaches the minimum
+		 */
+		void add(int i, int j, int intersection, int sizeI, int sizeJ, int measure, double minimum) {
+			if (measure == JACCARD) {
+				int union = sizeI + sizeJ - intersection;
+				float value = (union == 0) ? 0f : (float) intersection / union;
+				if (value >= minimum) add(i, j, value);
+			} else {
+				float value = (sizeI == 0) ? 0f : (float) intersection / sizeI;
+				if (value >= minimum) add(i, j, value);
+				value = (sizeJ == 0) ? 0f : (float) intersection / sizeJ;
+				if (value >= minimum) add(j, i, value);
+			}
+		}
+
+		/**
+		 * adds the pair (or both ordered pairs for containment) given by an estimated jaccard index, if the similarity
+		 * reaches the minimum. the size of the intersection follows from jaccard = |A and B| / (|A|+|B|-|A and B|)
+		 */
+		void addEstimate(int i, int j, double jaccard, int sizeI, int sizeJ, int measure, double minimum) {
+			if (sizeI == 0 || sizeJ == 0) jaccard = 0; // empty signatures agree everywhere
+			if (measure == JACCARD) {
+				if (jaccard >= minimum) add(i, j, (float) jaccard);
+			} else {
+				double intersection = Math.min(jaccard * (sizeI + sizeJ) / (1 + jaccard), Math.min(sizeI, sizeJ));
+				float value = (sizeI == 0) ? 0f : (float) (intersection / sizeI);
+				if (value >= minimum) add(i, j, value);
+				value = (sizeJ == 0) ? 0f : (float) (intersection / sizeJ);
+				if (value >= minimum) add(j, i, value);
+			}
+		}
+	}
+
+	/**
+	 * runs the tasks on a thread pool and hands their pairs to the consumer in the order of the tasks. only a limited number
+	 * of tasks is pending at any time, so the pairs are streamed instead of being collected. if a matrix is given instead of a
+	 * consumer, the pairs are stored in the matrix; for symmetric measures, every pair is stored in both directions
+	 */
+	private void run(LinkedList<Callable<Pairs>> tasks, PairConsumer consumer, float[][] matrix, boolean symmetric) throws InterruptedException, IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<Pairs>> pending = new LinkedList<Future<Pairs>>();
+			while (!tasks.isEmpty() || !pending.isEmpty()) {
+				while (!tasks.isEmpty() && pending.size() < 2 * threads)
+					pending.add(pool.submit(tasks.removeFirst()));
+				Pairs pairs;
+				try {
+					pairs = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				for (int k = 0; k < pairs.count; k++) {
+					if (matrix != null) {
+						matrix[pairs.first[k]][pairs.second[k]] = pairs.similarity[k];
+						if (symmetric) matrix[pairs.second[k]][pairs.first[k]] = pairs.similarity[k];
+					} else consumer.pair(ids[pairs.first[k]], ids[pairs.second[k]], pairs.similarity[k]);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// exact similarities
+
+	private synchronized long[][] bits() {
+		if (bits == null) {
+			int words = (reactionCount + 63) / 64;
+			bits = new long[ids.length][];
+			for (int i = 0; i < ids.length; i++) {
+				long[] b = new long[words];
+				for (int r : members[i])
+					b[r >>> 6] |= 1L << r;
+				bits[i] = b;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * calculates the exact similarities of all pairs of compartments
+	 *
+	 * @param measure {@link #JACCARD} or {@link #CONTAINMENT}
+	 * @param minimum only pairs with at least this similarity are reported
+	 * @param consumer receives the pairs
+	 * @throws InterruptedException
+	 * @throws IOException if the consumer fails
+	 */
+	public void exact(int measure, double minimum, PairConsumer consumer) throws InterruptedException, IOException {
+		checkMeasure(measure);
+		run(tiles(measure, minimum), consumer, null, false);
+	}
+
+	/**
+	 * calculates the exact similarity matrix. only feasible for moderate numbers of compartments, as the matrix is held in
+	 * memory
+	 *
+	 * @param measure {@link #JACCARD} or {@link #CONTAINMENT}
+	 * @return matrix[i][j] is the similarity of the i-th compartment to the j-th compartment (in the order given to the
+	 *         constructor)
+	 * @throws InterruptedException
+	 */
+	public float[][] matrix(int measure) throws InterruptedException {
+		checkMeasure(measure);
+		float[][] matrix = new float[ids.length][ids.length];
+		for (int i = 0; i < ids.length; i++)
+			matrix[i][i] = (members[i].length == 0) ? 0f : 1f;
+		try {
+			run(tiles(measure, Double.NEGATIVE_INFINITY), null, matrix, measure == JACCARD);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // can not happen without consumer
+		}
+		return matrix;
+	}
+
+	/**
+	 * creates the tasks comparing the tiles of the upper triangle of the matrix
+	 */
+	private LinkedList<Callable<Pairs>> tiles(final int measure, final double minimum) {
+		final long[][] bits = bits();
+		LinkedList<Callable<Pairs>> tasks = new LinkedList<Callable<Pairs>>();
+		for (int rowStart = 0; rowStart < ids.length; rowStart += tileSize) {
+			for (int columnStart = rowStart; columnStart < ids.length; columnStart += tileSize) {
+				final int rows = rowStart, columns = columnStart;
+				tasks.add(new Callable<Pairs>() {
+					public Pairs call() {
+						Pairs pairs = new Pairs();
+						int rowEnd = Math.min(ids.length, rows + tileSize), columnEnd = Math.min(ids.length, columns + tileSize);
+						for (int i = rows; i < rowEnd; i++) {
+							long[] a = bits[i];
+							for (int j = Math.max(columns, i + 1); j < columnEnd; j++) {
+								long[] b = bits[j];
+								int intersection = 0;
+								for (int w = 0; w < a.length; w++)
+									intersection += Long.bitCount(a[w] & b[w]);
+								pairs.add(i, j, intersection, members[i].length, members[j].length, measure, minimum);
+							}
+						}
+						return pairs;
+					}
+				});
+			}
+		}
+		return tasks;
+	}
+
+	// approximate similarities
+
+	/**
+	 * calculates MinHash signatures of all compartments
+	 *
+	 * @param hashes the number of hash functions
+	 * @return for every compartment the minimum of each hash function over its reactions
+	 * @throws InterruptedException
+	 */
+	private int[][] signatures(final int hashes) throws InterruptedException {
+		final int[] table = new int[reactionCount * hashes]; // table[r*hashes+h] = h-th hash of reaction r
+		Random random = new Random(seed);
+		for (int h = 0; h < hashes; h++) {
+			long salt = random.nextLong();
+			for (int r = 0; r < reactionCount; r++)
+				table[r * hashes + h] = (int) (mix(r + salt) >>> 32);
+		}
+		final int[][] signatures = new int[ids.length][];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				pending.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						for (int i = first; i < ids.length; i += threads) {
+							int[] signature = new int[hashes];
+							Arrays.fill(signature, Integer.MAX_VALUE);
+							for (int r : members[i]) {
+								int offset = r * hashes;
+								for (int h = 0; h < hashes; h++)
+									if (table[offset + h] < signature[h]) signature[h] = table[offset + h];
+							}
+							signatures[i] = signature;
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : pending) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return signatures;
+	}
+
+	/**
+	 * finalizer of the splitmix64 generator, used as hash function
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * finds the pairs of similar compartments by locality sensitive hashing: the MinHash signatures are cut into bands, and
+	 * compartments agreeing in all values of at least one band are compared. the similarity is estimated from the fraction
+	 * of agreeing signature values. a pair with jaccard index s becomes a candidate with probability 1-(1-s^r)^b for b bands
+	 * of r rows, so more bands find less similar pairs at higher cost
+	 *
+	 * @param hashes the length of the signatures, e.g. 128
+	 * @param bands the number of bands, has to divide hashes
+	 * @param measure {@link #JACCARD} or {@link #CONTAINMENT}
+	 * @param minimum only pairs with at least this estimated similarity are reported
+	 * @param consumer receives the pairs
+	 * @throws InterruptedException
+	 * @throws IOException if the consumer fails
+	 */
+	public void approximate(final int hashes, final int bands, final int measure, final double minimum, PairConsumer consumer) throws InterruptedException, IOException {
+		checkMeasure(measure);
+		if (hashes < 1) throw new IllegalArgumentException("number of hashes has to be positive, found " + hashes);
+		if (bands < 1 || hashes % bands != 0) throw new IllegalArgumentException("number of bands has to divide the number of hashes (" + hashes + "), found " + bands);
+		final int[][] signatures = signatures(hashes);
+		final int rows = hashes / bands;
+		final long[][] keys = new long[bands][ids.length]; // keys[b][i] = hash of band b of the signature of compartment i
+		for (int b = 0; b < bands; b++)
+			for (int i = 0; i < ids.length; i++) {
+				long key = b;
+				for (int h = b * rows; h < (b + 1) * rows; h++)
+					key = mix(key * 31 + signatures[i][h]);
+				keys[b][i] = key;
+			}
+
+		LinkedList<Callable<Pairs>> tasks = new LinkedList<Callable<Pairs>>();
+		for (int band = 0; band < bands; band++) {
+			final int b = band;
+			tasks.add(new Callable<Pairs>() {
+				public Pairs call() {
+					Pairs pairs = new Pairs();
+					long[] key = keys[b];
+					long[] sorted = new long[ids.length]; // upper half of the key and compartment index, sorting them forms the buckets
+					for (int i = 0; i < sorted.length; i++)
+						sorted[i] = (key[i] & 0xffffffff00000000L) | i;
+					Arrays.sort(sorted);
+					for (int start = 0, end; start < sorted.length; start = end) {
+						end = start + 1;
+						while (end < sorted.length && (sorted[end] >>> 32) == (sorted[start] >>> 32))
+							end++;
+						for (int x = start; x < end; x++) {
+							int i = (int) sorted[x];
+							for (int y = x + 1; y < end; y++) {
+								int j = (int) sorted[y];
+								if (key[i] != key[j] || collidedBefore(keys, b, i, j)) continue; // different bucket or reported by an earlier band
+								int agreeing = 0;
+								for (int h = 0; h < hashes; h++)
+									if (signatures[i][h] == signatures[j][h]) agreeing++;
+								pairs.addEstimate(Math.min(i, j), Math.max(i, j), (double) agreeing / hashes, members[i].length, members[j].length, measure, minimum);
+							}
+						}
+					}
+					return pairs;
+				}
+			});
+		}
+		run(tasks, consumer, null, false);
+	}
+
+	private static boolean collidedBefore(long[][] keys, int band, int i, int j) {
+		for (int b = 0; b < band; b++)
+			if (keys[b][i] == keys[b][j]) return true;
+		return false;
+	}
+}
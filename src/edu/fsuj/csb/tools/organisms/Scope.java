@@ -0,0 +1,362 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * scope (set of producible substances) of a set of seed substances, which is kept up to date while seeds and reactions
+ * are added or removed. additions are propagated from the changed substances only. removals first retract everything
+ * which was derived using the removed seed or reaction and then re-derive those substances, which are still producible
+ * by other means. so the effort of an update is proportional to the part of the network affected by it, instead of the
+ * size of the whole network.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class Scope {
+
+	private final Compartment compartment;
+
+	// substances
+	private HashMap<Integer, Integer> index = new HashMap<Integer, Integer>(); // substance id => substance index
+	private int substanceCount;
+	private int[] ids = new int[16]; // substance index => substance id
+	private boolean[] available = new boolean[16];
+	private boolean[] seed = new boolean[16];
+	private int[][] consumers = new int[16][]; // directions having the substance as input
+	private int[] consumerCount = new int[16];
+	private int[][] producers = new int[16][]; // directions having the substance as output
+	private int[] producerCount = new int[16];
+	private int size; // number of available substances
+
+	// directed reactions
+	private HashMap<Integer, int[]> directionsOf = new HashMap<Integer, int[]>(); // reaction id => its directions
+	private int directionCount;
+	private int[][] inputs = new int[16][];
+	private int[][] outputs = new int[16][];
+	private int[] missing = new int[16]; // number of inputs not available
+	private boolean[] enabled = new boolean[16];
+
+	private int[] queue = new int[16]; // working space for propagation
+	private int queueEnd; // end of the used part of the queue
+	private int[] retracted = new int[16]; // working space for removals
+
+	/**
+	 * creates an empty scope for the reactions of the given compartment
+	 *
+	 * @param compartment the compartment of interest
+	 */
+	public Scope(Compartment compartment) {
+		this(compartment.reactions(), compartment);
+	}
+
+	/**
+	 * creates an empty scope for the given reactions
+	 *
+	 * @param reactions the initial set of reactions
+	 * @param compartment the compartment, which determines the directions of the reactions
+	 */
+	public Scope(ReactionSet reactions, Compartment compartment) {
+		this.compartment = compartment;
+		if (reactions == null) return;
+		ReactionNetwork network = reactions.network(compartment);
+		for (int s = 0; s < network.substanceCount(); s++) // substances get the same indices as in the network
+			indexOf(network.substance(s));
+		for (int d = 0; d < network.directionCount(); d++) {
+			int[] in = Arrays.copyOfRange(network.inputs, network.inputStart[d], network.inputStart[d + 1]);
+			int[] out = Arrays.copyOfRange(network.outputs, network.outputStart[d], network.outputStart[d + 1]);
+			int direction = createDirection(in, out);
+			int[] known = directionsOf.get(network.reaction(d));
+			if (known == null) {
+				directionsOf.put(network.reaction(d), new int[] { direction });
+			} else directionsOf.put(network.reaction(d), new int[] { known[0], direction });
+		}
+		queueEnd = 0;
+		for (int d = 0; d < directionCount; d++) {
+			enabled[d] = true;
+			if (missing[d] == 0) fire(d);
+		}
+		propagate(0);
+	}
+
+	/**
+	 * @return the index of the given substance, which is registered if necessary
+	 */
+	private int indexOf(int substanceId) {
+		Integer known = index.get(substanceId);
+		if (known != null) return known;
+		if (substanceCount == ids.length) {
+			int capacity = 2 * substanceCount;
+			ids = Arrays.copyOf(ids, capacity);
+			available = Arrays.copyOf(available, capacity);
+			seed = Arrays.copyOf(seed, capacity);
+			consumers = Arrays.copyOf(consumers, capacity);
+			consumerCount = Arrays.copyOf(consumerCount, capacity);
+			producers = Arrays.copyOf(producers, capacity);
+			producerCount = Arrays.copyOf(producerCount, capacity);
+			queue = Arrays.copyOf(queue, capacity);
+			retracted = Arrays.copyOf(retracted, capacity);
+		}
+		int s = substanceCount++;
+		ids[s] = substanceId;
+		consumers[s] = new int[2];
+		producers[s] = new int[2];
+		index.put(substanceId, s);
+		return s;
+	}
+
+	private static int[] append(int[] list, int count, int value) {
+		if (count == list.length) list = Arrays.copyOf(list, 2 * count);
+		list[count] = value;
+		return list;
+	}
+
+	/**
+	 * registers a new (disabled) direction with the given inputs and outputs
+	 */
+	private int createDirection(int[] in, int[] out) {
+		if (directionCount == inputs.length) {
+			int capacity = 2 * directionCount;
+			inputs = Arrays.copyOf(inputs, capacity);
+			outputs = Arrays.copyOf(outputs, capacity);
+			missing = Arrays.copyOf(missing, capacity);
+			enabled = Arrays.copyOf(enabled, capacity);
+		}
+		int d = directionCount++;
+		inputs[d] = in;
+		outputs[d] = out;
+		for (int s : in) {
+			consumers[s] = append(consumers[s], consumerCount[s]++, d);
+			if (!available[s]) missing[d]++;
+		}
+		for (int s : out)
+			producers[s] = append(producers[s], producerCount[s]++, d);
+		return d;
+	}
+
+	/**
+	 * makes the outputs of direction d available and appends the new ones to the queue
+	 */
+	private void fire(int d) {
+		for (int s : outputs[d]) {
+			if (!available[s]) makeAvailable(s);
+		}
+	}
+
+	private void makeAvailable(int s) {
+		available[s] = true;
+		size++;
+		queue[queueEnd++] = s;
+	}
+
+	/**
+	 * propagates the availability of the substances queue[head..queueEnd-1], until no more directions fire
+	 */
+	private void propagate(int head) {
+		while (head < queueEnd) {
+			int s = queue[head++];
+			int[] cs = consumers[s];
+			for (int i = consumerCount[s] - 1; i >= 0; i--) {
+				int d = cs[i];
+				if (--missing[d] == 0 && enabled[d]) fire(d);
+			}
+		}
+	}
+
+	/**
+	 * retracts the substances start[0..count-1] and everything derived from them, then re-derives all retracted substances,
+	 * which are still producible by other means
+	 *
+	 * @return the number of substances finally removed from the scope
+	 */
+	private int retract(int[] start, int count) {
+		int sizeBefore = size;
+		int retractedCount = 0;
+		int head = 0, tail = 0;
+		for (int i = 0; i < count; i++) {
+			int s = start[i];
+			if (available[s]) {
+				available[s] = false;
+				size--;
+				queue[tail++] = s;
+			}
+		}
+		while (head < tail) { // over-delete
+			int s = queue[head++];
+			retracted[retractedCount++] = s;
+			int[] cs = consumers[s];
+			for (int i = consumerCount[s] - 1; i >= 0; i--) {
+				int d = cs[i];
+				if (missing[d]++ == 0 && enabled[d]) {
+					for (int o : outputs[d]) {
+						if (available[o]) {
+							available[o] = false;
+							size--;
+							queue[tail++] = o;
+						}
+					}
+				}
+			}
+		}
+		queueEnd = 0;
+		for (int i = 0; i < retractedCount; i++) { // re-derive
+			int s = retracted[i];
+			if (available[s] || !(seed[s] || hasFiringProducer(s))) continue;
+			int begin = queueEnd;
+			makeAvailable(s);
+			propagate(begin);
+		}
+		return sizeBefore - size;
+	}
+
+	private boolean hasFiringProducer(int s) {
+		int[] ps = producers[s];
+		for (int i = producerCount[s] - 1; i >= 0; i--) {
+			int d = ps[i];
+			if (enabled[d] && missing[d] == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * adds a seed substance to the scope
+	 *
+	 * @param substanceId the id of the seed substance
+	 * @return the number of substances added to the scope
+	 */
+	public int addSeed(int substanceId) {
+		int s = indexOf(substanceId);
+		seed[s] = true;
+		if (available[s]) return 0;
+		int sizeBefore = size;
+		queueEnd = 0;
+		makeAvailable(s);
+		propagate(0);
+		return size - sizeBefore;
+	}
+
+	/**
+	 * adds seed substances to the scope
+	 *
+	 * @param substanceIds the ids of the seed substances
+	 * @return the number of substances added to the scope
+	 */
+	public int addSeeds(Collection<Integer> substanceIds) {
+		int sizeBefore = size;
+		queueEnd = 0;
+		for (Integer substanceId : substanceIds) {
+			int s = indexOf(substanceId);
+			seed[s] = true;
+			if (!available[s]) makeAvailable(s);
+		}
+		propagate(0);
+		return size - sizeBefore;
+	}
+
+	/**
+	 * removes a seed substance from the scope. the substance stays within the scope, if it is producible from the other
+	 * seeds
+	 *
+	 * @param substanceId the id of the seed substance
+	 * @return the number of substances removed from the scope
+	 */
+	public int removeSeed(int substanceId) {
+		Integer s = index.get(substanceId);
+		if (s == null || !seed[s]) return 0;
+		seed[s] = false;
+		return retract(new int[] { s }, 1);
+	}
+
+	/**
+	 * adds a reaction (in the directions enabled in the compartment of this scope), or re-enables a removed one
+	 *
+	 * @param reactionId the id of the reaction
+	 * @return the number of substances added to the scope
+	 */
+	public int addReaction(int reactionId) {
+		int[] directions = directionsOf.get(reactionId);
+		if (directions == null) {
+			Reaction reaction = Reaction.get(reactionId);
+			boolean forward = reaction.firesForwardIn(compartment);
+			boolean backward = reaction.firesBackwardIn(compartment);
+			directions = new int[(forward ? 1 : 0) + (backward ? 1 : 0)];
+			int i = 0;
+			int[] substrates = new int[reaction.substrateCount()], products = new int[reaction.productCount()];
+			for (int k = 0; k < substrates.length; k++)
+				substrates[k] = indexOf(reaction.substrateId(k));
+			for (int k = 0; k < products.length; k++)
+				products[k] = indexOf(reaction.productId(k));
+			if (forward) directions[i++] = createDirection(substrates, products);
+			if (backward) directions[i++] = createDirection(products, substrates);
+			directionsOf.put(reactionId, directions);
+		}
+		int sizeBefore = size;
+		queueEnd = 0;
+		for (int d : directions) {
+			if (enabled[d]) continue;
+			enabled[d] = true;
+			if (missing[d] == 0) fire(d);
+		}
+		propagate(0);
+		return size - sizeBefore;
+	}
+
+	/**
+	 * removes (knocks out) a reaction
+	 *
+	 * @param reactionId the id of the reaction
+	 * @return the number of substances removed from the scope
+	 */
+	public int removeReaction(int reactionId) {
+		int[] directions = directionsOf.get(reactionId);
+		if (directions == null) return 0;
+		int[] start = new int[2];
+		int count = 0;
+		for (int d : directions) {
+			if (!enabled[d]) continue;
+			enabled[d] = false;
+			if (missing[d] > 0) continue;
+			for (int o : outputs[d]) // the outputs may have been derived using this direction only
+				start = append(start, count++, o);
+		}
+		return retract(start, count);
+	}
+
+	/**
+	 * @param substanceId the id of a substance
+	 * @return true, if the substance belongs to the scope
+	 */
+	public boolean contains(int substanceId) {
+		Integer s = index.get(substanceId);
+		return s != null && available[s];
+	}
+
+	/**
+	 * @return the number of substances within the scope
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the substances within the scope, including the seeds
+	 */
+	public TreeSet<Integer> substances() {
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (int s = 0; s < substanceCount; s++)
+			if (available[s]) result.add(ids[s]);
+		return result;
+	}
+
+	/**
+	 * @return the seed substances
+	 */
+	public TreeSet<Integer> seeds() {
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (int s = 0; s < substanceCount; s++)
+			if (seed[s]) result.add(ids[s]);
+		return result;
+	}
+}
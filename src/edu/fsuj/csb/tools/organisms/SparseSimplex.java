@@ -0,0 +1,835 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * bounded revised simplex for sparse linear programs of the form
+ *
+ * <pre>
+ * minimize c*x subject to A*x = b, lower &lt;= x &lt;= upper
+ * </pre>
+ *
+ * A is given in compressed sparse column form. every row gets a logical variable fixed to zero, which form the initial
+ * basis. the basis is kept as sparse LU factorization (left-looking, threshold pivoting preferring sparse rows) together
+ * with a file of eta vectors, which is refactorized after a number of basis changes. in phase 2, the reduced costs are
+ * updated from the pivot row (computed row-wise over A), and only the variables able to improve the objective are
+ * scanned during pricing. infeasible starting points are handled by a composite phase 1, which minimizes the sum of
+ * bound violations of the basic variables. when the simplex stalls at a degenerate vertex (as is common for stoichiometric
+ * matrices), the bounds are widened by small random amounts; after the perturbed problem has been solved, the original
+ * bounds are restored and the solution is cleaned up from the final basis.
+ *
+ * the basis of the last solve is kept: after changing bounds or costs, {@link #solve()} continues from it (warm start),
+ * which usually takes only a few iterations.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class SparseSimplex {
+
+	/**
+	 * an optimal solution has been found
+	 */
+	public static final int OPTIMAL = 0;
+	/**
+	 * the constraints can not be satisfied
+	 */
+	public static final int INFEASIBLE = 1;
+	/**
+	 * the objective is unbounded
+	 */
+	public static final int UNBOUNDED = 2;
+	/**
+	 * the iteration limit has been reached
+	 */
+	public static final int ITERATION_LIMIT = 3;
+
+	private static final double PRIMAL_TOLERANCE = 1e-9;
+	private static final double DUAL_TOLERANCE = 1e-9;
+	private static final double PIVOT_TOLERANCE = 1e-9;
+	private static final double DROP_TOLERANCE = 1e-14;
+	private static final double LU_THRESHOLD = 0.1;
+	private static final int REFACTORIZATION_INTERVAL = 64;
+	private static final int DEGENERACY_LIMIT = 50;
+	private static final int PERTURBATION_LIMIT = 3;
+	private static final double PERTURBATION = 1e-6;
+
+	private final int m, n; // rows, structural columns; variables n..n+m-1 are the logicals of the rows
+	private final int[] columnStart, rowIndices;
+	private final double[] values, rhs;
+	private final int[] rowStart, columnIndices; // A by rows, for the pivot rows
+	private final double[] rowValues;
+	private final double[] lower, upper, cost, x;
+	private final double[] originalLower, originalUpper; // bounds before perturbation
+	private final Random random = new Random(0);
+	private boolean perturbed;
+	private final int[] head; // basis position => variable
+	private final int[] position; // variable => basis position, -1 for nonbasic variables
+	private int iterations, iterationLimit, status = -1;
+
+	// LU factorization of the basis: step k eliminates basis position luColumn[k] with pivot row luRow[k]
+	private final int[] luColumn, luRow;
+	private final double[] diagonal;
+	private int[] lStart, lIndex, uStart, uIndex;
+	private double[] lValue, uValue;
+
+	// eta file: basis changes since the last factorization
+	private int etaCount;
+	private int[] etaPosition = new int[REFACTORIZATION_INTERVAL], etaStart = new int[REFACTORIZATION_INTERVAL + 1], etaIndex = new int[64];
+	private double[] etaPivot = new double[REFACTORIZATION_INTERVAL], etaValue = new double[64];
+	private boolean factorized;
+
+	// work arrays
+	private final double[] work, duals, alpha, basisCost, rho, transposed;
+	private final int[] workList;
+	private final boolean[] marked;
+	private final double[] reduced, pivotRow; // reduced costs, updated from the pivot row while the basis is feasible
+	private final int[] pivotList;
+	private final boolean[] inPivotRow;
+	private boolean pricesValid, pricesFresh; // fresh: recomputed rather than updated
+	private final int[] candidates; // superset of the nonbasic variables, which can improve the objective
+	private final boolean[] isCandidate;
+	private int candidateCount;
+
+	/**
+	 * creates a linear program with all variables bounded to [0, infinity) and zero costs. the arrays are not copied and must
+	 * not be modified afterwards
+	 *
+	 * @param rows the number of rows of A
+	 * @param columnStart CSC column pointers of A, its length determines the number of columns
+	 * @param rowIndices CSC row indices of A
+	 * @param values CSC values of A
+	 * @param rhs the right hand side b
+	 */
+	public SparseSimplex(int rows, int[] columnStart, int[] rowIndices, double[] values, double[] rhs) {
+		if (rhs.length != rows) throw new IllegalArgumentException("right hand side has " + rhs.length + " entries, expected " + rows);
+		m = rows;
+		n = columnStart.length - 1;
+		this.columnStart = columnStart;
+		this.rowIndices = rowIndices;
+		this.values = values;
+		this.rhs = rhs;
+		lower = new double[n + m];
+		upper = new double[n + m];
+		cost = new double[n + m];
+		x = new double[n + m];
+		originalLower = new double[n + m];
+		originalUpper = new double[n + m];
+		Arrays.fill(upper, 0, n, Double.POSITIVE_INFINITY);
+		head = new int[m];
+		position = new int[n + m];
+		Arrays.fill(position, 0, n, -1);
+		for (int i = 0; i < m; i++) {
+			head[i] = n + i;
+			position[n + i] = i;
+		}
+		iterationLimit = 100 * (n + m) + 1000;
+		luColumn = new int[m];
+		luRow = new int[m];
+		diagonal = new double[m];
+		lStart = new int[m + 1];
+		uStart = new int[m + 1];
+		lIndex = new int[Math.max(16, values.length)];
+		lValue = new double[lIndex.length];
+		uIndex = new int[Math.max(16, values.length)];
+		uValue = new double[uIndex.length];
+		work = new double[m];
+		duals = new double[m];
+		alpha = new double[m];
+		basisCost = new double[m];
+		rho = new double[m];
+		transposed = new double[m];
+		workList = new int[m];
+		marked = new boolean[m];
+		reduced = new double[n + m];
+		pivotRow = new double[n + m];
+		pivotList = new int[n + m];
+		inPivotRow = new boolean[n + m];
+		candidates = new int[n + m];
+		isCandidate = new boolean[n + m];
+
+		rowStart = new int[m + 1];
+		for (int k = 0; k < columnStart[n]; k++)
+			rowStart[rowIndices[k] + 1]++;
+		for (int i = 0; i < m; i++)
+			rowStart[i + 1] += rowStart[i];
+		columnIndices = new int[columnStart[n]];
+		rowValues = new double[columnStart[n]];
+		int[] fill = Arrays.copyOf(rowStart, m);
+		for (int j = 0; j < n; j++) {
+			for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+				int position = fill[rowIndices[k]]++;
+				columnIndices[position] = j;
+				rowValues[position] = values[k];
+			}
+		}
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @param lower the lower bound, may be negative infinity
+	 * @param upper the upper bound, may be positive infinity
+	 */
+	public void setBounds(int column, double lower, double upper) {
+		if (column < 0 || column >= n) throw new IndexOutOfBoundsException("no column " + column);
+		if (Double.isNaN(lower) || Double.isNaN(upper)) throw new IllegalArgumentException("bounds must be numbers");
+		this.lower[column] = lower;
+		this.upper[column] = upper;
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @return the lower bound of the variable
+	 */
+	public double lower(int column) {
+		return lower[column];
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @return the upper bound of the variable
+	 */
+	public double upper(int column) {
+		return upper[column];
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @param cost the coefficient of the variable in the (minimized) objective
+	 */
+	public void setCost(int column, double cost) {
+		if (column < 0 || column >= n) throw new IndexOutOfBoundsException("no column " + column);
+		this.cost[column] = cost;
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @return the coefficient of the variable in the objective
+	 */
+	public double cost(int column) {
+		return cost[column];
+	}
+
+	/**
+	 * @param limit the maximum number of iterations per solve
+	 */
+	public void setIterationLimit(int limit) {
+		if (limit < 1) throw new IllegalArgumentException("iteration limit has to be positive, found " + limit);
+		iterationLimit = limit;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int rows() {
+		return m;
+	}
+
+	/**
+	 * @return the number of structural variables
+	 */
+	public int columns() {
+		return n;
+	}
+
+	/**
+	 * minimizes the objective, starting from the basis of the previous solve
+	 *
+	 * @return the status of the solution: {@link #OPTIMAL}, {@link #INFEASIBLE}, {@link #UNBOUNDED} or {@link #ITERATION_LIMIT}
+	 */
+	public int solve() {
+		iterations = 0;
+		for (int j = 0; j < n; j++) {
+			if (lower[j] > upper[j]) return status = INFEASIBLE;
+			if (position[j] < 0) x[j] = Math.min(Math.max(x[j], lower[j]), upper[j]); // nonbasic variables stay within their bounds
+		}
+		factorized = false;
+		int degenerate = 0, perturbations = 0;
+		while (true) {
+			if (!factorized) {
+				factorize();
+				computeBasicValues();
+				pricesValid = false;
+			}
+
+			// phase 1 costs for violated bounds, phase 2 costs otherwise
+			boolean feasible = true;
+			for (int i = 0; i < m; i++) {
+				int v = head[i];
+				if (x[v] < lower[v] - PRIMAL_TOLERANCE) {
+					basisCost[i] = -1;
+					feasible = false;
+				} else if (x[v] > upper[v] + PRIMAL_TOLERANCE) {
+					basisCost[i] = 1;
+					feasible = false;
+				} else basisCost[i] = 0;
+			}
+			if (!feasible || !pricesValid) { // phase 1 costs change with the infeasibilities: recompute the reduced costs
+				if (feasible) for (int i = 0; i < m; i++)
+					basisCost[i] = cost[head[i]];
+				btran(basisCost, duals);
+				for (int j = 0; j < n + m; j++) {
+					if (position[j] >= 0) continue;
+					double d = feasible ? cost[j] : 0;
+					if (j < n) {
+						for (int k = columnStart[j]; k < columnStart[j + 1]; k++)
+							d -= duals[rowIndices[k]] * values[k];
+					} else d -= duals[j - n];
+					reduced[j] = d;
+				}
+				pricesValid = feasible;
+				pricesFresh = true;
+				collectCandidates();
+			}
+
+			// pricing: largest reduced cost, smallest index when stalling. candidates no longer improving are dropped
+			int entering = -1, direction = 0, kept = 0;
+			double best = 0;
+			for (int c = 0; c < candidateCount; c++) {
+				int j = candidates[c], dir = direction(j);
+				if (dir == 0) {
+					isCandidate[j] = false;
+					continue;
+				}
+				candidates[kept++] = j;
+				if ((degenerate > DEGENERACY_LIMIT) ? (entering < 0 || j < entering) : Math.abs(reduced[j]) > best) {
+					best = Math.abs(reduced[j]);
+					entering = j;
+					direction = dir;
+				}
+			}
+			candidateCount = kept;
+			if (entering < 0) {
+				if (feasible && !pricesFresh) { // confirm optimality with recomputed reduced costs
+					pricesValid = false;
+					continue;
+				}
+				if (perturbed) { // clean up with the original bounds
+					removePerturbation();
+					degenerate = 0;
+					continue;
+				}
+				if (feasible) { // duals of the final basis
+					for (int i = 0; i < m; i++)
+						basisCost[i] = cost[head[i]];
+					btran(basisCost, duals);
+				}
+				return status = feasible ? OPTIMAL : INFEASIBLE;
+			}
+			if (iterations >= iterationLimit) {
+				removePerturbation();
+				return status = ITERATION_LIMIT;
+			}
+			iterations++;
+
+			ftran(entering, alpha);
+
+			// ratio test (harris): first the largest step respecting the relaxed bounds, then the most stable pivot within it
+			double limit = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < m; i++) {
+				double rate = -direction * alpha[i];
+				if (Math.abs(rate) < PIVOT_TOLERANCE) continue;
+				double distance = distance(head[i], rate);
+				if (!Double.isInfinite(distance)) limit = Math.min(limit, (distance + PRIMAL_TOLERANCE) / Math.abs(rate));
+			}
+			double own = (direction > 0) ? upper[entering] - x[entering] : x[entering] - lower[entering], theta = own, bound = 0;
+			int leaving = -1;
+			if (own > limit || Double.isInfinite(own)) {
+				if (Double.isInfinite(limit)) {
+					if (!feasible) { // can not happen in exact arithmetic: recover by refactorization
+						factorized = false;
+						continue;
+					}
+					removePerturbation();
+					return status = UNBOUNDED;
+				}
+				double pivot = 0;
+				for (int i = 0; i < m; i++) {
+					double rate = -direction * alpha[i];
+					if (Math.abs(rate) < PIVOT_TOLERANCE || Math.abs(rate) <= pivot) continue;
+					double distance = distance(head[i], rate);
+					if (Double.isInfinite(distance) || distance / Math.abs(rate) > limit) continue;
+					pivot = Math.abs(rate);
+					leaving = i;
+					theta = Math.max(0, distance / pivot);
+					bound = blockingBound(head[i], rate);
+				}
+			}
+			degenerate = (theta < PRIMAL_TOLERANCE) ? degenerate + 1 : 0;
+			if (degenerate > DEGENERACY_LIMIT && !perturbed && perturbations < PERTURBATION_LIMIT) {
+				perturb();
+				perturbations++;
+				degenerate = 0;
+				collectCandidates();
+			}
+
+			// update values and basis
+			x[entering] += direction * theta;
+			for (int i = 0; i < m; i++)
+				if (alpha[i] != 0) x[head[i]] -= direction * theta * alpha[i];
+			if (leaving < 0) {
+				offer(entering);
+				continue;
+			}
+			if (pricesValid) updatePrices(leaving, entering);
+			pricesFresh = false;
+			int v = head[leaving];
+			x[v] = bound;
+			position[v] = -1;
+			head[leaving] = entering;
+			position[entering] = leaving;
+			offer(v);
+			addEta(leaving);
+			if (etaCount == REFACTORIZATION_INTERVAL) factorized = false;
+		}
+	}
+
+	/**
+	 * @param j a variable
+	 * @return 1, if increasing the nonbasic variable improves the objective, -1 if decreasing it does, 0 otherwise
+	 */
+	private int direction(int j) {
+		if (position[j] >= 0 || lower[j] == upper[j]) return 0;
+		double d = reduced[j];
+		if (d < -DUAL_TOLERANCE && x[j] < upper[j] - PRIMAL_TOLERANCE) return 1;
+		if (d > DUAL_TOLERANCE && x[j] > lower[j] + PRIMAL_TOLERANCE) return -1;
+		return 0;
+	}
+
+	/**
+	 * adds the variable to the candidates, if it improves the objective
+	 */
+	private void offer(int j) {
+		if (!isCandidate[j] && direction(j) != 0) {
+			isCandidate[j] = true;
+			candidates[candidateCount++] = j;
+		}
+	}
+
+	private void collectCandidates() {
+		candidateCount = 0;
+		for (int j = 0; j < n + m; j++) {
+			isCandidate[j] = direction(j) != 0;
+			if (isCandidate[j]) candidates[candidateCount++] = j;
+		}
+	}
+
+	/**
+	 * updates the reduced costs for a basis change, using the pivot row r of B^-1*A. must be called before the basis changes
+	 */
+	private void updatePrices(int r, int entering) {
+		Arrays.fill(basisCost, 0);
+		basisCost[r] = 1;
+		btran(basisCost, rho); // row r of B^-1
+		int count = 0;
+		for (int i = 0; i < m; i++) {
+			double rho = this.rho[i];
+			if (Math.abs(rho) < DROP_TOLERANCE) continue;
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				int j = columnIndices[k];
+				if (!inPivotRow[j]) {
+					inPivotRow[j] = true;
+					pivotList[count++] = j;
+				}
+				pivotRow[j] += rho * rowValues[k];
+			}
+			inPivotRow[n + i] = true;
+			pivotList[count++] = n + i;
+			pivotRow[n + i] = rho;
+		}
+		double step = reduced[entering] / alpha[r];
+		for (int c = 0; c < count; c++) {
+			int j = pivotList[c];
+			if (position[j] < 0) {
+				reduced[j] -= step * pivotRow[j];
+				offer(j);
+			}
+			pivotRow[j] = 0;
+			inPivotRow[j] = false;
+		}
+		reduced[entering] = 0;
+		reduced[head[r]] = -step;
+	}
+
+	/**
+	 * widens all finite bounds (except those of fixed nonbasic variables) by small random amounts, so that degenerate basic
+	 * variables no longer block
+	 */
+	private void perturb() {
+		System.arraycopy(lower, 0, originalLower, 0, n + m);
+		System.arraycopy(upper, 0, originalUpper, 0, n + m);
+		for (int j = 0; j < n + m; j++) {
+			if (position[j] < 0 && lower[j] == upper[j]) continue;
+			if (!Double.isInfinite(lower[j])) lower[j] -= PERTURBATION * (1 + random.nextDouble()) * (1 + Math.abs(lower[j]));
+			if (!Double.isInfinite(upper[j])) upper[j] += PERTURBATION * (1 + random.nextDouble()) * (1 + Math.abs(upper[j]));
+		}
+		perturbed = true;
+	}
+
+	/**
+	 * restores the original bounds, moving nonbasic variables back into them
+	 */
+	private void removePerturbation() {
+		if (!perturbed) return;
+		System.arraycopy(originalLower, 0, lower, 0, n + m);
+		System.arraycopy(originalUpper, 0, upper, 0, n + m);
+		for (int j = 0; j < n + m; j++)
+			if (position[j] < 0) x[j] = Math.min(Math.max(x[j], lower[j]), upper[j]);
+		perturbed = false;
+		factorized = false;
+	}
+
+	/**
+	 * @param variable a basic variable
+	 * @param rate the change of the variable per unit step
+	 * @return the step length (times the rate) until the variable blocks, infinity if it does not block
+	 */
+	private double distance(int variable, double rate) {
+		double value = x[variable];
+		if (value < lower[variable] - PRIMAL_TOLERANCE) return (rate > 0) ? lower[variable] - value : Double.POSITIVE_INFINITY;
+		if (value > upper[variable] + PRIMAL_TOLERANCE) return (rate < 0) ? value - upper[variable] : Double.POSITIVE_INFINITY;
+		return (rate < 0) ? value - lower[variable] : upper[variable] - value;
+	}
+
+	/**
+	 * @param variable a basic variable
+	 * @param rate the change of the variable per unit step
+	 * @return the bound, at which the variable blocks
+	 */
+	private double blockingBound(int variable, double rate) {
+		double value = x[variable];
+		if (value < lower[variable] - PRIMAL_TOLERANCE) return lower[variable];
+		if (value > upper[variable] + PRIMAL_TOLERANCE) return upper[variable];
+		return (rate < 0) ? lower[variable] : upper[variable];
+	}
+
+	/**
+	 * @return the status of the last solve, -1 if none has been performed
+	 */
+	public int status() {
+		return status;
+	}
+
+	/**
+	 * @return the number of iterations of the last solve
+	 */
+	public int iterations() {
+		return iterations;
+	}
+
+	/**
+	 * @param column the index of a structural variable
+	 * @return the value of the variable in the last solution
+	 */
+	public double value(int column) {
+		if (column < 0 || column >= n) throw new IndexOutOfBoundsException("no column " + column);
+		return x[column];
+	}
+
+	/**
+	 * @return the values of the structural variables in the last solution
+	 */
+	public double[] values() {
+		return Arrays.copyOf(x, n);
+	}
+
+	/**
+	 * @return the objective value of the last solution
+	 */
+	public double objective() {
+		double result = 0;
+		for (int j = 0; j < n; j++)
+			if (cost[j] != 0) result += cost[j] * x[j];
+		return result;
+	}
+
+	/**
+	 * @param row a row index
+	 * @return the dual value (shadow price) of the row in the last solution
+	 */
+	public double dual(int row) {
+		return duals[row];
+	}
+
+	/**
+	 * sets the basic variables, so that A*x = b holds for the current values of the nonbasic variables
+	 */
+	private void computeBasicValues() {
+		Arrays.fill(work, 0);
+		for (int i = 0; i < m; i++)
+			work[i] = rhs[i];
+		for (int j = 0; j < n; j++) {
+			if (position[j] >= 0 || x[j] == 0) continue;
+			for (int k = columnStart[j]; k < columnStart[j + 1]; k++)
+				work[rowIndices[k]] -= values[k] * x[j];
+		}
+		for (int i = 0; i < m; i++)
+			if (position[n + i] < 0) work[i] -= x[n + i];
+		solve(work, alpha);
+		for (int i = 0; i < m; i++)
+			x[head[i]] = alpha[i];
+	}
+
+	/**
+	 * solves B*y = a for a column of the constraint matrix
+	 *
+	 * @param variable the variable, whose column is used
+	 * @param result y, indexed by basis position
+	 */
+	private void ftran(int variable, double[] result) {
+		Arrays.fill(work, 0);
+		if (variable < n) {
+			for (int k = columnStart[variable]; k < columnStart[variable + 1]; k++)
+				work[rowIndices[k]] = values[k];
+		} else work[variable - n] = 1;
+		solve(work, result);
+	}
+
+	/**
+	 * solves B*y = a
+	 *
+	 * @param a the right hand side, indexed by row. it is overwritten
+	 * @param result y, indexed by basis position
+	 */
+	private void solve(double[] a, double[] result) {
+		for (int k = 0; k < m; k++) { // L
+			double v = a[luRow[k]];
+			if (v == 0) continue;
+			for (int e = lStart[k]; e < lStart[k + 1]; e++)
+				a[lIndex[e]] -= lValue[e] * v;
+		}
+		for (int k = 0; k < m; k++) // permute to elimination order, reusing the result array
+			result[k] = a[luRow[k]];
+		for (int k = m - 1; k >= 0; k--) { // U
+			double y = result[k] / diagonal[k];
+			result[k] = y;
+			if (y == 0) continue;
+			for (int e = uStart[k]; e < uStart[k + 1]; e++)
+				result[uIndex[e]] -= uValue[e] * y;
+		}
+		for (int k = 0; k < m; k++) // to basis positions
+			a[luColumn[k]] = result[k];
+		System.arraycopy(a, 0, result, 0, m);
+		for (int t = 0; t < etaCount; t++) { // eta file
+			int r = etaPosition[t];
+			double y = result[r] / etaPivot[t];
+			result[r] = y;
+			if (y == 0) continue;
+			for (int e = etaStart[t]; e < etaStart[t + 1]; e++)
+				result[etaIndex[e]] -= etaValue[e] * y;
+		}
+	}
+
+	/**
+	 * solves y*B = c
+	 *
+	 * @param c the costs, indexed by basis position
+	 * @param result y, indexed by row
+	 */
+	private void btran(double[] c, double[] result) {
+		System.arraycopy(c, 0, work, 0, m);
+		for (int t = etaCount - 1; t >= 0; t--) {
+			int r = etaPosition[t];
+			double v = work[r];
+			for (int e = etaStart[t]; e < etaStart[t + 1]; e++)
+				v -= etaValue[e] * work[etaIndex[e]];
+			work[r] = v / etaPivot[t];
+		}
+		for (int k = 0; k < m; k++) { // U transposed
+			double v = work[luColumn[k]];
+			for (int e = uStart[k]; e < uStart[k + 1]; e++)
+				v -= uValue[e] * transposed[uIndex[e]];
+			transposed[k] = v / diagonal[k];
+		}
+		for (int k = 0; k < m; k++)
+			result[luRow[k]] = transposed[k];
+		for (int k = m - 1; k >= 0; k--) { // L transposed
+			int p = luRow[k];
+			double v = result[p];
+			for (int e = lStart[k]; e < lStart[k + 1]; e++)
+				v -= lValue[e] * result[lIndex[e]];
+			result[p] = v;
+		}
+	}
+
+	private static int push(int[] heap, int size, int value) {
+		int i = size++;
+		while (i > 0 && heap[(i - 1) / 2] > value) {
+			heap[i] = heap[(i - 1) / 2];
+			i = (i - 1) / 2;
+		}
+		heap[i] = value;
+		return size;
+	}
+
+	private static int pop(int[] heap, int size) {
+		int value = heap[--size], i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+			if (heap[child] >= value) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+		return size;
+	}
+
+	/**
+	 * appends the basis change at the given position to the eta file, using the current entering column alpha
+	 */
+	private void addEta(int r) {
+		int start = etaStart[etaCount], size = start;
+		for (int i = 0; i < m; i++) {
+			if (i == r || Math.abs(alpha[i]) < DROP_TOLERANCE) continue;
+			if (size == etaIndex.length) {
+				etaIndex = Arrays.copyOf(etaIndex, 2 * size);
+				etaValue = Arrays.copyOf(etaValue, 2 * size);
+			}
+			etaIndex[size] = i;
+			etaValue[size++] = alpha[i];
+		}
+		etaPosition[etaCount] = r;
+		etaPivot[etaCount] = alpha[r];
+		etaStart[++etaCount] = size;
+	}
+
+	/**
+	 * factorizes the basis. columns are eliminated in order of increasing length; dependent columns are replaced by the
+	 * logicals of the rows left without pivot, their variables become nonbasic
+	 */
+	private void factorize() {
+		etaCount = 0;
+		int[] rowCount = new int[m];
+		int[] length = new int[m];
+		for (int i = 0; i < m; i++) {
+			int v = head[i];
+			if (v < n) {
+				length[i] = columnStart[v + 1] - columnStart[v];
+				for (int k = columnStart[v]; k < columnStart[v + 1]; k++)
+					rowCount[rowIndices[k]]++;
+			} else {
+				length[i] = 1;
+				rowCount[v - n]++;
+			}
+		}
+		// positions sorted by column length (counting sort)
+		int maxLength = 0;
+		for (int l : length)
+			maxLength = Math.max(maxLength, l);
+		int[] bucket = new int[maxLength + 2];
+		for (int l : length)
+			bucket[l + 1]++;
+		for (int l = 0; l <= maxLength; l++)
+			bucket[l + 1] += bucket[l];
+		int[] order = new int[m];
+		for (int i = 0; i < m; i++)
+			order[bucket[length[i]]++] = i;
+
+		boolean[] pivoted = new boolean[m];
+		int[] stepOfRow = new int[m];
+		int[] deficient = new int[m], heap = new int[m];
+		int deficientCount = 0, steps = 0, lSize = 0, uSize = 0;
+		Arrays.fill(work, 0);
+		for (int o = 0; o < m; o++) {
+			int pos = order[o], v = head[pos], count = 0, heapSize = 0;
+			if (v < n) {
+				for (int k = columnStart[v]; k < columnStart[v + 1]; k++) {
+					int row = rowIndices[k];
+					work[row] = values[k];
+					marked[row] = true;
+					workList[count++] = row;
+					if (pivoted[row]) heapSize = push(heap, heapSize, stepOfRow[row]);
+				}
+			} else {
+				work[v - n] = 1;
+				marked[v - n] = true;
+				workList[count++] = v - n;
+				if (pivoted[v - n]) heapSize = push(heap, heapSize, stepOfRow[v - n]);
+			}
+			// eliminate with the previous steps reached by the column, in order of the steps, recording the U column
+			uStart[steps] = uSize;
+			while (heapSize > 0) {
+				int t = heap[0];
+				heapSize = pop(heap, heapSize);
+				double u = work[luRow[t]];
+				if (u == 0) continue;
+				if (uSize == uIndex.length) {
+					uIndex = Arrays.copyOf(uIndex, 2 * uSize);
+					uValue = Arrays.copyOf(uValue, 2 * uSize);
+				}
+				uIndex[uSize] = t;
+				uValue[uSize++] = u;
+				for (int e = lStart[t]; e < lStart[t + 1]; e++) {
+					int row = lIndex[e];
+					if (!marked[row]) {
+						marked[row] = true;
+						workList[count++] = row;
+						if (pivoted[row]) heapSize = push(heap, heapSize, stepOfRow[row]); // pivoted after step t
+					}
+					work[row] -= lValue[e] * u;
+				}
+			}
+			// threshold pivoting, preferring sparse rows
+			double max = 0;
+			for (int c = 0; c < count; c++) {
+				int row = workList[c];
+				if (!pivoted[row]) max = Math.max(max, Math.abs(work[row]));
+			}
+			int pivot = -1;
+			if (max > PIVOT_TOLERANCE) {
+				for (int c = 0; c < count; c++) {
+					int row = workList[c];
+					if (pivoted[row] || Math.abs(work[row]) < LU_THRESHOLD * max) continue;
+					if (pivot < 0 || rowCount[row] < rowCount[pivot] || (rowCount[row] == rowCount[pivot] && Math.abs(work[row]) > Math.abs(work[pivot]))) pivot = row;
+				}
+			}
+			if (pivot < 0) {
+				deficient[deficientCount++] = pos;
+				uSize = uStart[steps];
+			} else {
+				lStart[steps] = lSize;
+				double p = work[pivot];
+				for (int c = 0; c < count; c++) {
+					int row = workList[c];
+					if (pivoted[row] || row == pivot || Math.abs(work[row]) < DROP_TOLERANCE) continue;
+					if (lSize == lIndex.length) {
+						lIndex = Arrays.copyOf(lIndex, 2 * lSize);
+						lValue = Arrays.copyOf(lValue, 2 * lSize);
+					}
+					lIndex[lSize] = row;
+					lValue[lSize++] = work[row] / p;
+				}
+				lStart[steps + 1] = lSize;
+				diagonal[steps] = p;
+				luRow[steps] = pivot;
+				luColumn[steps++] = pos;
+				pivoted[pivot] = true;
+				stepOfRow[pivot] = steps - 1;
+			}
+			for (int c = 0; c < count; c++) {
+				work[workList[c]] = 0;
+				marked[workList[c]] = false;
+			}
+		}
+		// replace dependent columns by logicals
+		int d = 0;
+		for (int row = 0; row < m && d < deficientCount; row++) {
+			if (pivoted[row]) continue;
+			int pos = deficient[d++], v = head[pos];
+			position[v] = -1;
+			x[v] = Math.min(Math.max(0, lower[v]), upper[v]);
+			if (position[n + row] >= 0) throw new IllegalStateException("logical of unpivoted row " + row + " is basic");
+			head[pos] = n + row;
+			position[n + row] = pos;
+			uStart[steps] = uSize;
+			lStart[steps] = lSize;
+			lStart[steps + 1] = lSize;
+			diagonal[steps] = 1;
+			luRow[steps] = row;
+			luColumn[steps++] = pos;
+		}
+		uStart[steps] = uSize;
+		factorized = true;
+	}
+}
@@ -0,0 +1,377 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * sparse stoichiometric matrix of a reaction set: rows are substances, columns are reactions, entries are the net
+ * stoichiometries (products positive, substrates negative). the matrix is held in compressed sparse column (CSC) as well as
+ * in compressed sparse row (CSR) form, using primitive arrays. rows and columns are dense indices, which map to database
+ * ids: substances are sorted by id, columns follow the order of the reaction ids.
+ *
+ * reversible reactions either get one column (with the direction noted for the column), or they are split into a forward
+ * and a backward column, like in the SBML export (see {@link Reaction#getCode(StringBuffer, boolean)}).
+ *
+ * @author Stephan Richter
+ *
+ */
+public class StoichiometricMatrix {
+
+	/**
+	 * magic number at the start of binary files ("STOI")
+	 */
+	public static final int MAGIC = 0x53544f49;
+	/**
+	 * version of the binary layout
+	 */
+	public static final int VERSION = 1;
+
+	private final int[] substances; // row index => substance id
+	private final int[] reactions; // column index => reaction id
+	private final boolean[] backward; // column describes the backward direction of a split reaction
+	private final byte[] directions; // 1: only forward / 0: both directions / -1: only backward, with respect to the column
+	private final int[] columnStart, rowIndices; // CSC
+	private final double[] columnValues;
+	private final int[] rowStart, columnIndices; // CSR
+	private final double[] rowValues;
+
+	/**
+	 * builds the stoichiometric matrix of the given reactions
+	 *
+	 * @param reactionSet the reactions. ids of reactions, which have not been loaded, are left out
+	 * @param compartment the compartment determining the directions of the reactions. reactions without direction in the
+	 *          compartment are left out. if null, all reactions are taken as reversible
+	 * @param split if set, reversible reactions are split into a forward and a backward column, otherwise they get a single
+	 *          column marked as reversible
+	 */
+	public StoichiometricMatrix(ReactionSet reactionSet, Compartment compartment, boolean split) {
+		if (split && compartment == null) throw new IllegalArgumentException("splitting reversible reactions requires a compartment");
+		// columns
+		Reaction[] rs = new Reaction[2 * reactionSet.size()];
+		int[] ids = new int[rs.length];
+		boolean[] back = new boolean[rs.length];
+		byte[] dirs = new byte[rs.length];
+		int columns = 0, entries = 0, size = 0;
+		for (Integer rid : reactionSet) {
+			Reaction reaction = Reaction.get(rid);
+			if (reaction == null) continue; // not loaded
+			int bits = (compartment == null) ? Reaction.FORWARD_BIT | Reaction.BACKWARD_BIT : compartment.directionBits(reaction);
+			if (bits == 0) continue;
+			boolean forward = (bits & Reaction.FORWARD_BIT) != 0, backward = (bits & Reaction.BACKWARD_BIT) != 0;
+			for (int dir = 0; dir < 2; dir++) {
+				if (split) {
+					if (dir == 0 ? !forward : !backward) continue;
+					dirs[columns] = 1;
+				} else {
+					if (dir == 1) continue;
+					dirs[columns] = (byte) (forward ? (backward ? 0 : 1) : -1);
+				}
+				rs[columns] = reaction;
+				ids[columns] = rid;
+				back[columns++] = (dir == 1);
+				entries += reaction.substrateCount() + reaction.productCount();
+			}
+			size += reaction.substrateCount() + reaction.productCount();
+		}
+		reactions = Arrays.copyOf(ids, columns);
+		backward = Arrays.copyOf(back, columns);
+		directions = Arrays.copyOf(dirs, columns);
+
+		// rows
+		int[] sids = new int[size];
+		size = 0;
+		Reaction last = null;
+		for (int j = 0; j < columns; j++) {
+			if (rs[j] == last) continue; // second column of a split reaction
+			last = rs[j];
+			for (int i = 0; i < last.substrateCount(); i++)
+				sids[size++] = last.substrateId(i);
+			for (int i = 0; i < last.productCount(); i++)
+				sids[size++] = last.productId(i);
+		}
+		Arrays.sort(sids, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++)
+			if (distinct == 0 || sids[i] != sids[distinct - 1]) sids[distinct++] = sids[i];
+		substances = Arrays.copyOf(sids, distinct);
+
+		// CSC: merge substrates and products of every column (both are sorted by substance id)
+		columnStart = new int[columns + 1];
+		int[] rows = new int[entries];
+		double[] values = new double[entries];
+		int n = 0;
+		for (int j = 0; j < columns; j++) {
+			Reaction reaction = rs[j];
+			double sign = backward[j] ? -1 : 1;
+			int s = 0, p = 0, sc = reaction.substrateCount(), pc = reaction.productCount();
+			while (s < sc || p < pc) {
+				int sid;
+				double value;
+				if (p == pc || (s < sc && reaction.substrateId(s) < reaction.productId(p))) {
+					sid = reaction.substrateId(s);
+					value = -reaction.substrateStoichiometry(s++);
+				} else if (s == sc || reaction.productId(p) < reaction.substrateId(s)) {
+					sid = reaction.productId(p);
+					value = reaction.productStoichiometry(p++);
+				} else { // substance on both sides
+					sid = reaction.productId(p);
+					value = reaction.productStoichiometry(p++) - reaction.substrateStoichiometry(s++);
+				}
+				if (value == 0) continue;
+				rows[n] = Arrays.binarySearch(substances, sid);
+				values[n++] = sign * value;
+			}
+			columnStart[j + 1] = n;
+		}
+		rowIndices = Arrays.copyOf(rows, n);
+		columnValues = Arrays.copyOf(values, n);
+
+		// CSR: transpose
+		rowStart = new int[distinct + 1];
+		for (int k = 0; k < n; k++)
+			rowStart[rowIndices[k] + 1]++;
+		for (int i = 0; i < distinct; i++)
+			rowStart[i + 1] += rowStart[i];
+		columnIndices = new int[n];
+		rowValues = new double[n];
+		int[] fill = Arrays.copyOf(rowStart, distinct);
+		for (int j = 0; j < columns; j++) {
+			for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+				int position = fill[rowIndices[k]]++;
+				columnIndices[position] = j;
+				rowValues[position] = columnValues[k];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows (substances)
+	 */
+	public int rows() {
+		return substances.length;
+	}
+
+	/**
+	 * @return the number of columns (reactions or reaction directions)
+	 */
+	public int columns() {
+		return reactions.length;
+	}
+
+	/**
+	 * @return the number of non-zero entries
+	 */
+	public int entries() {
+		return rowIndices.length;
+	}
+
+	/**
+	 * @param row a row index
+	 * @return the id of the substance belonging to the row
+	 */
+	public int substance(int row) {
+		return substances[row];
+	}
+
+	/**
+	 * @param substanceId the id of a substance
+	 * @return the row of the substance, or -1 if it does not occur in the matrix
+	 */
+	public int rowOf(int substanceId) {
+		int row = Arrays.binarySearch(substances, substanceId);
+		return (row < 0) ? -1 : row;
+	}
+
+	/**
+	 * @param column a column index
+	 * @return the id of the reaction belonging to the column
+	 */
+	public int reaction(int column) {
+		return reactions[column];
+	}
+
+	/**
+	 * @param reactionId the id of a reaction
+	 * @return the column of the reaction (its forward column, if split), or -1 if it does not occur in the matrix
+	 */
+	public int column(int reactionId) {
+		int column = Arrays.binarySearch(reactions, reactionId); // columns are sorted by reaction id
+		if (column < 0) return -1;
+		while (column > 0 && reactions[column - 1] == reactionId)
+			column--;
+		return column;
+	}
+
+	/**
+	 * @param column a column index
+	 * @return true, if the column describes the backward direction of a split reaction (substrates and products swapped)
+	 */
+	public boolean isBackward(int column) {
+		return backward[column];
+	}
+
+	/**
+	 * @param column a column index
+	 * @return 1, if the column may only proceed forward, -1 if it may only proceed backward and 0 if it is reversible. columns
+	 *         of split reactions always proceed forward
+	 */
+	public byte direction(int column) {
+		return directions[column];
+	}
+
+	/**
+	 * @param column a column index
+	 * @return the column name as used in the SBML export: "r" followed by the reaction id, "rb" for backward columns
+	 */
+	public String columnName(int column) {
+		return (backward[column] ? "rb" : "r") + reactions[column];
+	}
+
+	/**
+	 * @return CSC column pointers: the entries of column j are at columnStart[j]..columnStart[j+1]-1. must not be modified
+	 */
+	public int[] columnStart() {
+		return columnStart;
+	}
+
+	/**
+	 * @return CSC row indices of the entries, sorted within every column. must not be modified
+	 */
+	public int[] rowIndices() {
+		return rowIndices;
+	}
+
+	/**
+	 * @return CSC values of the entries. must not be modified
+	 */
+	public double[] columnValues() {
+		return columnValues;
+	}
+
+	/**
+	 * @return CSR row pointers: the entries of row i are at rowStart[i]..rowStart[i+1]-1. must not be modified
+	 */
+	public int[] rowStart() {
+		return rowStart;
+	}
+
+	/**
+	 * @return CSR column indices of the entries, sorted within every row. must not be modified
+	 */
+	public int[] columnIndices() {
+		return columnIndices;
+	}
+
+	/**
+	 * @return CSR values of the entries. must not be modified
+	 */
+	public double[] rowValues() {
+		return rowValues;
+	}
+
+	/**
+	 * @param row a row index
+	 * @param column a column index
+	 * @return the stoichiometry of the row's substance in the column's reaction
+	 */
+	public double get(int row, int column) {
+		int k = Arrays.binarySearch(rowIndices, columnStart[column], columnStart[column + 1], row);
+		return (k < 0) ? 0 : columnValues[k];
+	}
+
+	/**
+	 * writes the matrix in MatrixMarket coordinate format (1-based indices, column by column). the ids of the rows and
+	 * columns are given as comment lines ("% row &lt;index&gt; &lt;substance id&gt;" and "% column &lt;index&gt; &lt;column
+	 * name&gt; &lt;direction&gt;")
+	 *
+	 * @param file the file to be written
+	 * @throws IOException
+	 */
+	public void writeMatrixMarket(File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try {
+			writer.write("%%MatrixMarket matrix coordinate real general\n");
+			writer.write("% stoichiometric matrix: rows are substances, columns are reactions\n");
+			for (int i = 0; i < substances.length; i++)
+				writer.write("% row " + (i + 1) + " " + substances[i] + "\n");
+			for (int j = 0; j < reactions.length; j++)
+				writer.write("% column " + (j + 1) + " " + columnName(j) + " " + directions[j] + "\n");
+			writer.write(substances.length + " " + reactions.length + " " + rowIndices.length + "\n");
+			for (int j = 0; j < reactions.length; j++) {
+				for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+					writer.write(Integer.toString(rowIndices[k] + 1));
+					writer.write(' ');
+					writer.write(Integer.toString(j + 1));
+					writer.write(' ');
+					double value = columnValues[k];
+					writer.write((value == Math.rint(value)) ? Long.toString((long) value) : Double.toString(value));
+					writer.write('\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * writes the matrix in a raw binary layout, which can be memory mapped. all values are little endian, every array starts
+	 * at a multiple of its element size:
+	 *
+	 * <pre>
+	 * int    magic (0x53544f49), version, rows, columns, entries, 0, 0, 0
+	 * int    substance id of every row [rows]
+	 * int    reaction id of every column [columns]
+	 * int    flags of every column [columns]: bit 0 set for backward columns, bits 8..15 the direction as signed byte
+	 * int    CSC column pointers [columns+1]
+	 * int    CSC row indices [entries]
+	 * int    CSR row pointers [rows+1]
+	 * int    CSR column indices [entries]
+	 * int    padding to a multiple of 8 bytes, if needed
+	 * double CSC values [entries]
+	 * double CSR values [entries]
+	 * </pre>
+	 *
+	 * @param file the file to be written
+	 * @throws IOException
+	 */
+	public void writeBinary(File file) throws IOException {
+		int ints = 8 + substances.length + 2 * reactions.length + (reactions.length + 1) + rowIndices.length + (substances.length + 1) + columnIndices.length;
+		int[] flags = new int[reactions.length];
+		for (int j = 0; j < flags.length; j++)
+			flags[j] = (backward[j] ? 1 : 0) | ((directions[j] & 0xff) << 8);
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			int[] header = { MAGIC, VERSION, substances.length, reactions.length, rowIndices.length, 0, 0, 0 };
+			for (int[] array : new int[][] { header, substances, reactions, flags, columnStart, rowIndices, rowStart, columnIndices, (ints % 2 == 0) ? new int[0] : new int[1] }) {
+				for (int value : array) {
+					if (buffer.remaining() < 4) flush(channel, buffer);
+					buffer.putInt(value);
+				}
+			}
+			for (double[] array : new double[][] { columnValues, rowValues }) {
+				for (double value : array) {
+					if (buffer.remaining() < 8) flush(channel, buffer);
+					buffer.putDouble(value);
+				}
+			}
+			flush(channel, buffer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
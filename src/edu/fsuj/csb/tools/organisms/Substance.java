@@ -6,7 +6,6 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import edu.fsuj.csb.tools.urn.URN;
-import edu.fsuj.csb.tools.xml.Tools;
 
 /**
  * extends the component class to represent substances of chemical systems
@@ -56,13 +55,13 @@ public class Substance extends Component implements Serializable {
 	
   @Override
   public void getCode(StringBuffer result) {
-  	Tools.startMethod("Substance.getCode()");
+  	int trace=Trace.start(Trace.EXPORT, "Substance.getCode");
   	setValue("id", "s"+id());
   	String mainName=mainName();
   	if (mainName==null) throw new NullPointerException("No name for substance "+id());
   	setValue("name", mainName.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "'"));
   	setValue("initialConcentration", "1.0");
   	super.getCode(result);
-  	Tools.endMethod();    
+  	Trace.end(trace);
   }
 }
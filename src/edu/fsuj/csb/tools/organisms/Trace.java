@@ -0,0 +1,175 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.fsuj.csb.tools.xml.Tools;
+
+/**
+ * guarded front end for the method tracing of {@link Tools}. tracing is configured per subsystem: the level decides,
+ * whether calls are traced at all (CALLS) and whether arguments and results are printed (DETAILS); the sampling rate
+ * allows to trace only every n-th call. the trace messages are only assembled, if the call is actually traced, so disabled
+ * tracing costs no more than reading a flag.
+ *
+ * usage:
+ *
+ * <pre>
+ * int trace = Trace.start(Trace.FORMULA, &quot;new Formula&quot;, formula);
+ * ...
+ * Trace.end(trace, this);
+ * </pre>
+ *
+ * the initial configuration is read from the system properties trace.&lt;subsystem&gt; (level) and
+ * trace.&lt;subsystem&gt;.sample (sampling rate), e.g. -Dtrace.formula=2 -Dtrace.formula.sample=1000
+ *
+ * @author Stephan Richter
+ *
+ */
+public class Trace {
+
+	/** subsystem: formula parsing and arithmetic */
+	public static final int FORMULA = 0;
+	/** subsystem: substances, reactions and compartments */
+	public static final int MODEL = 1;
+	/** subsystem: sbml export */
+	public static final int EXPORT = 2;
+
+	/** level: nothing is traced */
+	public static final int OFF = 0;
+	/** level: method entries and exits are traced */
+	public static final int CALLS = 1;
+	/** level: method entries and exits are traced along with arguments and results */
+	public static final int DETAILS = 2;
+
+	private static final String[] SUBSYSTEMS = { "formula", "model", "export" };
+
+	private static final int[] levels = new int[SUBSYSTEMS.length];
+	private static final int[] sampling = new int[SUBSYSTEMS.length];
+	private static final AtomicLong[] calls = new AtomicLong[SUBSYSTEMS.length];
+	private static volatile boolean enabled; // true, if any subsystem is traced
+
+	static {
+		for (int subsystem = 0; subsystem < SUBSYSTEMS.length; subsystem++) {
+			calls[subsystem] = new AtomicLong();
+			levels[subsystem] = Integer.getInteger("trace." + SUBSYSTEMS[subsystem], OFF);
+			sampling[subsystem] = Math.max(1, Integer.getInteger("trace." + SUBSYSTEMS[subsystem] + ".sample", 1));
+		}
+		update();
+	}
+
+	private static void update() {
+		boolean any = false;
+		for (int level : levels)
+			if (level > OFF) any = true;
+		enabled = any;
+	}
+
+	/**
+	 * sets the trace level of a subsystem
+	 *
+	 * @param subsystem one of FORMULA, MODEL, EXPORT
+	 * @param level one of OFF, CALLS, DETAILS
+	 */
+	public static synchronized void setLevel(int subsystem, int level) {
+		levels[subsystem] = level;
+		update();
+	}
+
+	/**
+	 * @param subsystem one of FORMULA, MODEL, EXPORT
+	 * @return the trace level of the given subsystem
+	 */
+	public static int level(int subsystem) {
+		return enabled ? levels[subsystem] : OFF;
+	}
+
+	/**
+	 * sets the sampling rate of a subsystem
+	 *
+	 * @param subsystem one of FORMULA, MODEL, EXPORT
+	 * @param every only every n-th call of the subsystem is traced, 1 traces all calls
+	 */
+	public static synchronized void setSampling(int subsystem, int every) {
+		if (every < 1) throw new IllegalArgumentException("sampling rate has to be positive, found " + every);
+		sampling[subsystem] = every;
+		update();
+	}
+
+	/**
+	 * decides, whether the current call shall be traced
+	 *
+	 * @return the trace level for the current call
+	 */
+	private static int levelForCall(int subsystem) {
+		int level = levels[subsystem];
+		if (level == OFF) return OFF;
+		int every = sampling[subsystem];
+		if (every > 1 && calls[subsystem].incrementAndGet() % every != 0) return OFF;
+		return level;
+	}
+
+	/**
+	 * traces the entry of a method
+	 *
+	 * @param subsystem the subsystem the method belongs to
+	 * @param method the name of the method
+	 * @return the trace state, which has to be passed to the matching end call
+	 */
+	public static int start(int subsystem, String method) {
+		if (!enabled) return OFF;
+		int level = levelForCall(subsystem);
+		if (level != OFF) Tools.startMethod(method + "()");
+		return level;
+	}
+
+	/**
+	 * traces the entry of a method. the argument is only printed at level DETAILS
+	 *
+	 * @param subsystem the subsystem the method belongs to
+	 * @param method the name of the method
+	 * @param argument the argument of the method
+	 * @return the trace state, which has to be passed to the matching end call
+	 */
+	public static int start(int subsystem, String method, Object argument) {
+		if (!enabled) return OFF;
+		int level = levelForCall(subsystem);
+		if (level == DETAILS) {
+			Tools.startMethod(method + "(" + argument + ")");
+		} else if (level != OFF) Tools.startMethod(method + "()");
+		return level;
+	}
+
+	/**
+	 * traces the exit of a method
+	 *
+	 * @param state the trace state returned by the start call
+	 */
+	public static void end(int state) {
+		if (state != OFF) Tools.endMethod();
+	}
+
+	/**
+	 * traces the exit of a method. the result is only printed at level DETAILS
+	 *
+	 * @param state the trace state returned by the start call
+	 * @param result the result of the method
+	 */
+	public static void end(int state, Object result) {
+		if (state == DETAILS) {
+			Tools.endMethod(result);
+		} else if (state != OFF) Tools.endMethod();
+	}
+
+	/**
+	 * traces the exit of a method. the result is only printed at level DETAILS and cut after the given number of characters
+	 *
+	 * @param state the trace state returned by the start call
+	 * @param result the result of the method
+	 * @param maxLength the maximum number of characters printed
+	 */
+	public static void end(int state, Object result, int maxLength) {
+		if (state == DETAILS) {
+			String text = String.valueOf(result);
+			Tools.endMethod((text.length() > maxLength) ? "{" + text.substring(0, maxLength) + "...}" : text);
+		} else if (state != OFF) Tools.endMethod();
+	}
+}
@@ -0,0 +1,133 @@
+package edu.fsuj.csb.tools.organisms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * network expansion trajectory: the generation, in which every substance and reaction becomes reachable from a set of
+ * seeds. the seeds form generation 0; reactions whose substrates are all available after generation g-1 belong to
+ * generation g, as do the substances they produce first. the generations are held in primitive arrays, parallel to sorted
+ * id arrays.
+ *
+ * @author Stephan Richter
+ *
+ */
+public class Trajectory {
+
+	private final int[] substanceIds; // sorted
+	private final int[] substanceGenerations; // -1, if not reachable
+	private final int[] reactionIds; // sorted
+	private final int[] reactionGenerations; // -1, if never fired
+	private final int depth;
+
+	/**
+	 * @param substances the substance ids of the network, sorted
+	 * @param substanceGeneration the generation of every substance of the network, -1 if not reachable
+	 * @param seeds the seed substances. seeds not occuring in the network are added with generation 0
+	 * @param directionReactions the reaction ids of the directed reactions of the network
+	 * @param directionGeneration the generations of the directed reactions, -1 if never fired
+	 */
+	Trajectory(int[] substances, int[] substanceGeneration, Collection<Integer> seeds, int[] directionReactions, int[] directionGeneration) {
+		int[] extra = new int[seeds.size()]; // seeds outside the network
+		int extraCount = 0;
+		for (Integer seed : seeds)
+			if (Arrays.binarySearch(substances, seed) < 0) extra[extraCount++] = seed;
+		Arrays.sort(extra, 0, extraCount);
+		int distinctExtra = 0;
+		for (int i = 0; i < extraCount; i++)
+			if (distinctExtra == 0 || extra[i] != extra[distinctExtra - 1]) extra[distinctExtra++] = extra[i];
+		extraCount = distinctExtra;
+		substanceIds = new int[substances.length + extraCount];
+		substanceGenerations = new int[substanceIds.length];
+		for (int i = 0, j = 0, k = 0; k < substanceIds.length; k++) { // merge both sorted lists
+			if (j == extraCount || (i < substances.length && substances[i] < extra[j])) {
+				substanceIds[k] = substances[i];
+				substanceGenerations[k] = substanceGeneration[i++];
+			} else {
+				substanceIds[k] = extra[j++];
+				substanceGenerations[k] = 0;
+			}
+		}
+
+		int[] sorted = directionReactions.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (distinct == 0 || sorted[i] != sorted[distinct - 1]) sorted[distinct++] = sorted[i];
+		reactionIds = Arrays.copyOf(sorted, distinct);
+		reactionGenerations = new int[distinct];
+		Arrays.fill(reactionGenerations, -1);
+		for (int d = 0; d < directionReactions.length; d++) { // a reaction belongs to the generation of its first firing direction
+			int generation = directionGeneration[d];
+			if (generation < 0) continue;
+			int r = Arrays.binarySearch(reactionIds, directionReactions[d]);
+			if (reactionGenerations[r] < 0 || generation < reactionGenerations[r]) reactionGenerations[r] = generation;
+		}
+
+		int max = 0;
+		for (int generation : substanceGenerations)
+			max = Math.max(max, generation);
+		depth = max;
+	}
+
+	/**
+	 * @param substanceId the id of a substance
+	 * @return the generation, in which the substance becomes reachable, or -1 if it is not reachable
+	 */
+	public int substanceGeneration(int substanceId) {
+		int index = Arrays.binarySearch(substanceIds, substanceId);
+		return (index < 0) ? -1 : substanceGenerations[index];
+	}
+
+	/**
+	 * @param reactionId the id of a reaction
+	 * @return the generation, in which the reaction fires first, or -1 if it never fires
+	 */
+	public int reactionGeneration(int reactionId) {
+		int index = Arrays.binarySearch(reactionIds, reactionId);
+		return (index < 0) ? -1 : reactionGenerations[index];
+	}
+
+	/**
+	 * @return the number of the last generation
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * @param generation the number of a generation
+	 * @return the substances, which become reachable in the given generation
+	 */
+	public TreeSet<Integer> substances(int generation) {
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (int i = 0; i < substanceIds.length; i++)
+			if (substanceGenerations[i] == generation) result.add(substanceIds[i]);
+		return result;
+	}
+
+	/**
+	 * @param generation the number of a generation
+	 * @return the reactions, which fire first in the given generation
+	 */
+	public TreeSet<Integer> reactions(int generation) {
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (int i = 0; i < reactionIds.length; i++)
+			if (reactionGenerations[i] == generation) result.add(reactionIds[i]);
+		return result;
+	}
+
+	/**
+	 * @return the sizes of the generations: the number of substances reachable after each generation, the last entry equals
+	 *         the size of the scope
+	 */
+	public int[] cumulativeSizes() {
+		int[] result = new int[depth + 1];
+		for (int generation : substanceGenerations)
+			if (generation >= 0) result[generation]++;
+		for (int g = 1; g <= depth; g++)
+			result[g] += result[g - 1];
+		return result;
+	}
+}
@@ -12,9 +12,9 @@ import java.util.zip.DataFormatException;
 import javax.swing.tree.DefaultMutableTreeNode;
 
 import edu.fsuj.csb.tools.organisms.Compartment;
+import edu.fsuj.csb.tools.organisms.Trace;
 import edu.fsuj.csb.tools.urn.URN;
 import edu.fsuj.csb.tools.xml.ObjectComparator;
-import edu.fsuj.csb.tools.xml.Tools;
 import edu.fsuj.csb.tools.xml.XmlObject;
 import edu.fsuj.csb.tools.xml.XmlToken;
 
@@ -119,10 +119,10 @@ public class CompartmentNode extends SortedTreeNode implements XmlObject{
 
 	@Override
   public void getCode(StringBuffer result) {
-		Tools.startMethod("CompartmentNode.getCode()");
+		int trace=Trace.start(Trace.EXPORT, "CompartmentNode.getCode");
 		XmlToken model = compartment().getModel();
 		System.err.println("model created, generating code...");
 		model.getCode(result);
-		Tools.endMethod();
+		Trace.end(trace);
   }
 }